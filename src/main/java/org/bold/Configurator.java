@@ -1,12 +1,18 @@
 package org.bold;
 
+import org.bold.http.ConnectorOptions;
 import org.bold.io.FileUtils;
+import org.bold.sim.BatchRunner;
 import org.bold.sim.SimulationEngine;
 import org.bold.sim.SimulationHandler;
+import org.bold.sim.TickScheduler;
+import org.bold.sim.UpdateKernel;
+import org.eclipse.rdf4j.common.transaction.IsolationLevels;
 import org.eclipse.rdf4j.model.vocabulary.SP;
 
 import java.io.FileInputStream;
 import java.util.Properties;
+import java.util.TreeSet;
 
 public class Configurator {
 
@@ -24,6 +30,82 @@ public class Configurator {
 
     private final static String SERVER_WEBSOCKET_DEFAULT = "false";
 
+    private final static String SERVER_THREADS_KEY = "bold.server.threads";
+
+    private final static String SERVER_THREADS_DEFAULT = "200";
+
+    private final static String SERVER_CONNECTIONS_KEY = "bold.server.connections";
+
+    private final static String SERVER_CACHE_SIZE_KEY = "bold.server.cacheSize";
+
+    private final static String SERVER_CACHE_SIZE_DEFAULT = "16";
+
+    private final static String SERVER_SPARQL_ENDPOINT_KEY = "bold.server.sparqlEndpoint";
+
+    private final static String SERVER_SPARQL_ENDPOINT_DEFAULT = "false";
+
+    private final static String SERVER_SPARQL_TIMEOUT_KEY = "bold.server.sparqlTimeout";
+
+    private final static String SERVER_SPARQL_TIMEOUT_DEFAULT = "10";
+
+    private final static String SERVER_SPARQL_MAX_RESULTS_KEY = "bold.server.sparqlMaxResults";
+
+    private final static String SERVER_SPARQL_MAX_RESULTS_DEFAULT = "10000";
+
+    private final static String SERVER_GROUP_COMMIT_WINDOW_KEY = "bold.server.groupCommitWindow";
+
+    private final static String SERVER_GROUP_COMMIT_WINDOW_DEFAULT = "1";
+
+    private final static String SERVER_GROUP_COMMIT_SIZE_KEY = "bold.server.groupCommitSize";
+
+    private final static String SERVER_GROUP_COMMIT_SIZE_DEFAULT = "64";
+
+    private final static String SERVER_LDP_PAGE_SIZE_KEY = "bold.server.ldpPageSize";
+
+    private final static String SERVER_LDP_PAGE_SIZE_DEFAULT = "0";
+
+    private final static String SERVER_RATE_LIMIT_KEY = "bold.server.rateLimit";
+
+    private final static String SERVER_RATE_LIMIT_DEFAULT = "0";
+
+    private final static String SERVER_RATE_BURST_KEY = "bold.server.rateBurst";
+
+    private final static String SERVER_RATE_BURST_DEFAULT = "10";
+
+    private final static String SERVER_MAX_IN_FLIGHT_KEY = "bold.server.maxInFlight";
+
+    private final static String SERVER_MAX_IN_FLIGHT_DEFAULT = "0";
+
+    private final static String SERVER_AGENT_HEADER_KEY = "bold.server.agentHeader";
+
+    private final static String SERVER_ACCEPTORS_KEY = "bold.server.acceptors";
+
+    private final static String SERVER_ACCEPTORS_DEFAULT = "-1";
+
+    private final static String SERVER_SELECTORS_KEY = "bold.server.selectors";
+
+    private final static String SERVER_SELECTORS_DEFAULT = "-1";
+
+    private final static String SERVER_ACCEPT_QUEUE_SIZE_KEY = "bold.server.acceptQueueSize";
+
+    private final static String SERVER_ACCEPT_QUEUE_SIZE_DEFAULT = "0";
+
+    private final static String SERVER_IDLE_TIMEOUT_KEY = "bold.server.idleTimeout";
+
+    private final static String SERVER_IDLE_TIMEOUT_DEFAULT = "30000";
+
+    private final static String SERVER_OUTPUT_BUFFER_SIZE_KEY = "bold.server.outputBufferSize";
+
+    private final static String SERVER_OUTPUT_BUFFER_SIZE_DEFAULT = "32768";
+
+    private final static String SERVER_H2C_KEY = "bold.server.h2c";
+
+    private final static String SERVER_H2C_DEFAULT = "false";
+
+    private final static String SERVER_MAX_STREAMS_KEY = "bold.server.maxConcurrentStreams";
+
+    private final static String SERVER_MAX_STREAMS_DEFAULT = "128";
+
     private final static String INIT_DATASET_KEY = "bold.init.dataset";
 
     private final static String INIT_UPDATE_KEY = "bold.init.update";
@@ -32,8 +114,52 @@ public class Configurator {
 
     private final static String RUNTIME_QUERY_KEY = "bold.runtime.query";
 
+    private final static String RUNTIME_KERNEL_KEY_PREFIX = "bold.runtime.kernel.";
+
+    private final static String RUNTIME_TIMESLOT_DURATION_KEY = "bold.runtime.timeslotDuration";
+
+    private final static String RUNTIME_TIMESLOT_DURATION_DEFAULT = "1000";
+
+    private final static String RUNTIME_OVERRUN_POLICY_KEY = "bold.runtime.overrunPolicy";
+
+    private final static String RUNTIME_OVERRUN_POLICY_DEFAULT = "catch_up";
+
+    private final static String RUNTIME_UPDATE_PARALLELISM_KEY = "bold.runtime.updateParallelism";
+
+    private final static String RUNTIME_UPDATE_PARALLELISM_DEFAULT = "1";
+
+    private final static String RUNTIME_TICK_TRANSACTION_KEY = "bold.runtime.tickTransaction";
+
+    private final static String RUNTIME_TICK_TRANSACTION_DEFAULT = "none";
+
     private final static String REPLAY_DUMP_KEY = "bold.replay.dump";
 
+    private final static String REPLAY_LAG_KEY = "bold.replay.lag";
+
+    private final static String REPLAY_LAG_DEFAULT = "-1";
+
+    private final static String REPLAY_CHECKPOINT_INTERVAL_KEY = "bold.replay.checkpointInterval";
+
+    private final static String REPLAY_CHECKPOINT_INTERVAL_DEFAULT = "0";
+
+    private final static String REPLAY_PARALLELISM_KEY = "bold.replay.parallelism";
+
+    private final static String HISTORY_LOG_KEY = "bold.history.log";
+
+    private final static String HISTORY_SEGMENT_SIZE_KEY = "bold.history.segmentSize";
+
+    private final static String HISTORY_SEGMENT_SIZE_DEFAULT = "64";
+
+    private final static int HISTORY_SEGMENT_SIZE_MAX = 2047;
+
+    private final static String BATCH_OPTION = "--batch";
+
+    private final static String RECOVER_OPTION = "--recover";
+
+    private final static String BATCH_SIM_KEY = "bold.batch.sim";
+
+    private final static String BATCH_SIM_DEFAULT = "data/sim.ttl";
+
     private final static String SPARQL_RANDOM_SEED = "bold.sparql.randomSeed";
 
     private final static String SPARQL_RANDOM_SEED_DEFAULT = "1";
@@ -46,6 +172,13 @@ public class Configurator {
         // TODO more advanced CLI
         String task = args.length > 0 ? args[0] : "sim";
 
+        // batch mode: bold-server <task> --batch [iterations]
+        boolean batch = args.length > 1 && args[1].equals(BATCH_OPTION);
+        Integer iterations = batch && args.length > 2 ? Integer.valueOf(args[2]) : null;
+
+        // recovery mode: bold-server <task> --recover <directory> (replays the change log of a crashed run)
+        String recovered = args.length > 2 && args[1].equals(RECOVER_OPTION) ? args[2] : null;
+
         Properties config = new Properties();
         config.load(new FileInputStream((task + ".properties")));
 
@@ -55,9 +188,48 @@ public class Configurator {
         String protocol = config.getProperty(SERVER_PROTOCOL, SERVER_PROTOCOL_DEFAULT);
         String webSocket = config.getProperty(SERVER_WEBSOCKET, SERVER_WEBSOCKET_DEFAULT);
         String resultFile = config.getProperty(SPARQL_RESULT_FILE, SPARQL_RESULT_FILE_DEFAULT);
-        SimulationHandler handler = new SimulationHandler(port, protocol, Boolean.parseBoolean(webSocket), resultFile);
+        int threads = Integer.parseInt(config.getProperty(SERVER_THREADS_KEY, SERVER_THREADS_DEFAULT));
+        int connections = Integer.parseInt(config.getProperty(SERVER_CONNECTIONS_KEY, String.valueOf(Runtime.getRuntime().availableProcessors())));
+        long cacheSize = Long.parseLong(config.getProperty(SERVER_CACHE_SIZE_KEY, SERVER_CACHE_SIZE_DEFAULT)) * 1024 * 1024;
+
+        ConnectorOptions connector = new ConnectorOptions()
+                .setAcceptors(Integer.parseInt(config.getProperty(SERVER_ACCEPTORS_KEY, SERVER_ACCEPTORS_DEFAULT)))
+                .setSelectors(Integer.parseInt(config.getProperty(SERVER_SELECTORS_KEY, SERVER_SELECTORS_DEFAULT)))
+                .setAcceptQueueSize(Integer.parseInt(config.getProperty(SERVER_ACCEPT_QUEUE_SIZE_KEY, SERVER_ACCEPT_QUEUE_SIZE_DEFAULT)))
+                .setIdleTimeout(Long.parseLong(config.getProperty(SERVER_IDLE_TIMEOUT_KEY, SERVER_IDLE_TIMEOUT_DEFAULT)))
+                .setOutputBufferSize(Integer.parseInt(config.getProperty(SERVER_OUTPUT_BUFFER_SIZE_KEY, SERVER_OUTPUT_BUFFER_SIZE_DEFAULT)))
+                .setH2c(Boolean.parseBoolean(config.getProperty(SERVER_H2C_KEY, SERVER_H2C_DEFAULT)), Integer.parseInt(config.getProperty(SERVER_MAX_STREAMS_KEY, SERVER_MAX_STREAMS_DEFAULT)));
+
+        SimulationEngine engine;
+        BatchRunner runner = null;
+
+        if (batch || recovered != null) {
+            runner = new BatchRunner("http://127.0.1.1:" + port + "/", protocol, resultFile);
+            engine = runner.getSimulationEngine();
+        } else {
+            SimulationHandler handler = new SimulationHandler(port, protocol, Boolean.parseBoolean(webSocket), resultFile, threads, connections, cacheSize, connector);
+            engine = handler.getSimulationEngine();
+
+            if (Boolean.parseBoolean(config.getProperty(SERVER_SPARQL_ENDPOINT_KEY, SERVER_SPARQL_ENDPOINT_DEFAULT))) {
+                int timeout = Integer.parseInt(config.getProperty(SERVER_SPARQL_TIMEOUT_KEY, SERVER_SPARQL_TIMEOUT_DEFAULT));
+                int maxResults = Integer.parseInt(config.getProperty(SERVER_SPARQL_MAX_RESULTS_KEY, SERVER_SPARQL_MAX_RESULTS_DEFAULT));
+                handler.enableSparqlEndpoint(timeout, maxResults);
+            }
 
-        SimulationEngine engine = handler.getSimulationEngine();
+            long groupCommitWindow = Long.parseLong(config.getProperty(SERVER_GROUP_COMMIT_WINDOW_KEY, SERVER_GROUP_COMMIT_WINDOW_DEFAULT));
+            int groupCommitSize = Integer.parseInt(config.getProperty(SERVER_GROUP_COMMIT_SIZE_KEY, SERVER_GROUP_COMMIT_SIZE_DEFAULT));
+            handler.configureGroupCommit(groupCommitWindow, groupCommitSize);
+
+            int pageSize = Integer.parseInt(config.getProperty(SERVER_LDP_PAGE_SIZE_KEY, SERVER_LDP_PAGE_SIZE_DEFAULT));
+            if (pageSize > 0) handler.enableLdpPaging(pageSize);
+
+            double rateLimit = Double.parseDouble(config.getProperty(SERVER_RATE_LIMIT_KEY, SERVER_RATE_LIMIT_DEFAULT));
+            int maxInFlight = Integer.parseInt(config.getProperty(SERVER_MAX_IN_FLIGHT_KEY, SERVER_MAX_IN_FLIGHT_DEFAULT));
+            if (rateLimit > 0 || maxInFlight > 0) {
+                int burst = Integer.parseInt(config.getProperty(SERVER_RATE_BURST_KEY, SERVER_RATE_BURST_DEFAULT));
+                handler.enableAdmissionControl(rateLimit, burst, maxInFlight, config.getProperty(SERVER_AGENT_HEADER_KEY));
+            }
+        }
 
         for (String f : FileUtils.listFiles(config.getProperty(INIT_DATASET_KEY))) {
             engine.registerDataset(f);
@@ -71,14 +243,60 @@ public class Configurator {
             engine.registerContinuousUpdate(f);
         }
 
+        // note: kernels are executed after SPARQL updates, in alphabetical order of their name
+        for (String key : new TreeSet<>(config.stringPropertyNames())) {
+            if (key.startsWith(RUNTIME_KERNEL_KEY_PREFIX)) {
+                Class<?> cl = Class.forName(config.getProperty(key).trim());
+                UpdateKernel kernel = (UpdateKernel) cl.getDeclaredConstructor().newInstance();
+                engine.registerContinuousUpdate(key.substring(RUNTIME_KERNEL_KEY_PREFIX.length()), kernel);
+            }
+        }
+
         for (String f : FileUtils.listFiles(config.getProperty(RUNTIME_QUERY_KEY))) {
             engine.registerQuery(f);
         }
 
+        long timeslot = Long.parseLong(config.getProperty(RUNTIME_TIMESLOT_DURATION_KEY, RUNTIME_TIMESLOT_DURATION_DEFAULT));
+        engine.setTimeSlotDuration(timeslot);
+
+        String policy = config.getProperty(RUNTIME_OVERRUN_POLICY_KEY, RUNTIME_OVERRUN_POLICY_DEFAULT);
+        engine.setOverrunPolicy(TickScheduler.OverrunPolicy.valueOf(policy.trim().toUpperCase().replace('-', '_')));
+
+        int updateParallelism = Integer.parseInt(config.getProperty(RUNTIME_UPDATE_PARALLELISM_KEY, RUNTIME_UPDATE_PARALLELISM_DEFAULT));
+        engine.setUpdateParallelism(updateParallelism);
+
+        String isolation = config.getProperty(RUNTIME_TICK_TRANSACTION_KEY, RUNTIME_TICK_TRANSACTION_DEFAULT).trim().toUpperCase();
+        engine.setTickTransaction(isolation.equals("NONE") ? null : IsolationLevels.valueOf(isolation));
+
         String filenamePattern = config.getProperty(REPLAY_DUMP_KEY);
         engine.setDumpPattern(filenamePattern);
 
+        int lag = Integer.parseInt(config.getProperty(REPLAY_LAG_KEY, REPLAY_LAG_DEFAULT));
+        engine.setReplayLag(lag);
+
+        int interval = Integer.parseInt(config.getProperty(REPLAY_CHECKPOINT_INTERVAL_KEY, REPLAY_CHECKPOINT_INTERVAL_DEFAULT));
+        String parallelism = config.getProperty(REPLAY_PARALLELISM_KEY, String.valueOf(Runtime.getRuntime().availableProcessors()));
+        engine.setCheckpointInterval(interval, Integer.parseInt(parallelism));
+
+        String logDirectory = config.getProperty(HISTORY_LOG_KEY);
+        if (logDirectory != null && recovered == null) {
+            int segmentSize = Integer.parseInt(config.getProperty(HISTORY_SEGMENT_SIZE_KEY, HISTORY_SEGMENT_SIZE_DEFAULT));
+            // note: a segment is a single memory-mapped buffer, whose size (in bytes) must fit in an int
+            if (segmentSize < 1 || segmentSize > HISTORY_SEGMENT_SIZE_MAX) {
+                throw new IllegalArgumentException(HISTORY_SEGMENT_SIZE_KEY + " must be between 1 and " + HISTORY_SEGMENT_SIZE_MAX + " (MB), got " + segmentSize);
+            }
+            engine.setChangeLog(logDirectory, segmentSize * 1024 * 1024);
+        }
+
         engine.registrationDone();
+
+        if (recovered != null) {
+            engine.replayChangeLog(recovered);
+            runner.terminate();
+        } else if (runner != null) {
+            runner.run(config.getProperty(BATCH_SIM_KEY, BATCH_SIM_DEFAULT), iterations);
+            runner.terminate();
+        }
     }
 
 }
@@ -0,0 +1,79 @@
+package org.bold.http;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Response body written with non-blocking I/O (Servlet 3.1): the request thread returns as soon as writing starts and
+ * the rest of the body is written whenever the client can receive it, without holding a thread or a store connection.
+ */
+class AsyncWriter implements WriteListener {
+
+    private final byte[] content;
+
+    private final int length;
+
+    private final Runnable done;
+
+    private AsyncContext async;
+
+    private ServletOutputStream out;
+
+    private boolean written = false;
+
+    private boolean completed = false;
+
+    /**
+     * @param content body of the response (valid up to length)
+     * @param done called once the body is written (or writing failed), e.g. to release a buffer; may be null
+     */
+    AsyncWriter(byte[] content, int length, Runnable done) {
+        this.content = content;
+        this.length = length;
+        this.done = done;
+    }
+
+    /**
+     * Starts writing the body (status and headers must have been set).
+     */
+    void write(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentLength(length);
+
+        async = request.startAsync();
+        async.setTimeout(0); // note: slow clients are still subject to the connector's idle timeout
+
+        out = response.getOutputStream();
+        out.setWriteListener(this);
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+        while (out.isReady()) {
+            if (written) {
+                complete();
+                return;
+            }
+
+            written = true;
+            out.write(content, 0, length);
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        complete();
+    }
+
+    private synchronized void complete() {
+        if (completed) return;
+        completed = true;
+
+        async.complete();
+        if (done != null) done.run();
+    }
+
+}
@@ -0,0 +1,160 @@
+package org.bold.http;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.vocabulary.LDP;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFParseException;
+import org.eclipse.rdf4j.rio.Rio;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Changes several named graphs in a single transaction: the payload is an RDF dataset (TriG, N-Quads...) whose named
+ * graphs replace (PUT, see {@link GraphDiff}) or extend (POST) the graphs of the same name. Statements in the default graph are rejected.
+ *
+ * A batch is reported to graph listeners as a single interaction, with the number of statements written per graph.
+ */
+public class BatchHandler extends AbstractHandler implements GraphHandler {
+
+    public static final RDFFormat DEFAULT_RDF_FORMAT = RDFFormat.TRIG;
+
+    private final URI baseURI;
+
+    private final ConnectionPool connections;
+
+    private final GraphIndex index;
+
+    private final boolean ldp;
+
+    private final Set<GraphListener> listeners = new HashSet<>();
+
+    /**
+     * @param base base URI against which relative graph names are resolved
+     * @param pool connections to the simulation store, one being leased per request
+     * @param index index of named graphs, providing write locks and containment triples
+     * @param ldp whether graphs are LDP resources, in which case containment triples cannot be replaced nor added
+     */
+    public BatchHandler(URI base, ConnectionPool pool, GraphIndex index, boolean ldp) {
+        baseURI = base;
+        connections = pool;
+        this.index = index;
+        this.ldp = ldp;
+    }
+
+    public void addGraphListener(GraphListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeGraphListener(GraphListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        baseRequest.setHandled(true);
+
+        String method = baseRequest.getMethod();
+        if (!method.equals("PUT") && !method.equals("POST")) {
+            response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+
+        RDFFormat contentType = ContentNegotiation.getParserFormat(request.getHeader("Content-Type"), DEFAULT_RDF_FORMAT);
+        if (contentType == null || !contentType.supportsContexts()) {
+            response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+            return;
+        }
+
+        Model model;
+        try {
+            model = Rio.parse(request.getInputStream(), baseURI.toString(), contentType);
+        } catch (RDFParseException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        Map<IRI, Integer> counts = new LinkedHashMap<>();
+        for (Resource g : model.contexts()) {
+            if (!(g instanceof IRI)) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Statements must belong to graphs named by an IRI");
+                return;
+            }
+
+            counts.put((IRI) g, model.filter(null, null, null, g).size());
+        }
+
+        boolean replace = method.equals("PUT");
+
+        List<Lock> locks = index.getLocks(counts.keySet());
+        for (Lock l : locks) l.lock();
+
+        try {
+            if (ldp && replace && !containmentsUntouched(model, counts.keySet())) {
+                response.sendError(HttpServletResponse.SC_CONFLICT);
+                return;
+            }
+
+            // note: containment triples are only added by creating a resource in a container (see LDPHandler)
+            if (ldp && !replace && model.contains(null, LDP.CONTAINS, null)) {
+                response.sendError(HttpServletResponse.SC_CONFLICT);
+                return;
+            }
+
+            RepositoryConnection connection = connections.lease();
+            try {
+                long before = System.currentTimeMillis();
+                connection.begin();
+                if (replace) {
+                    for (IRI g : counts.keySet()) {
+                        GraphDiff.of(connection, model.filter(null, null, null, g), g).apply(connection); // only changed statements
+                    }
+                } else {
+                    connection.add(model);
+                }
+                connection.commit();
+                long after = System.currentTimeMillis();
+
+                response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+
+                for (GraphListener l : listeners) {
+                    l.batchApplied(counts, after - before);
+                }
+            } finally {
+                connections.release(connection);
+            }
+        } finally {
+            for (Lock l : locks) l.unlock();
+        }
+    }
+
+    /**
+     * Replaced LDP containers must keep their containment triples (as in {@link LDPHandler}).
+     */
+    private boolean containmentsUntouched(Model model, Set<IRI> graphNames) {
+        for (IRI g : graphNames) {
+            Set<Statement> containments = index.getContainments(g);
+            Set<Statement> proposed = new HashSet<>();
+            model.filter(null, LDP.CONTAINS, null, g).forEach(proposed::add);
+
+            if (!proposed.equals(containments)) return false;
+        }
+
+        return true;
+    }
+
+}
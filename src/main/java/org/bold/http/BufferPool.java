@@ -0,0 +1,50 @@
+package org.bold.http;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Pool of growable byte buffers into which graphs are exported, reused across requests to avoid allocating (and
+ * growing) a new buffer for every export. Buffers that grew beyond a maximum size are not kept.
+ */
+class BufferPool {
+
+    static class Buffer extends ByteArrayOutputStream {
+
+        Buffer() {
+            super(INITIAL_SIZE);
+        }
+
+        /**
+         * @return the internal array of the buffer (valid up to {@link #size()}), without copy
+         */
+        byte[] array() {
+            return buf;
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+
+    }
+
+    private static final int INITIAL_SIZE = 8 * 1024;
+
+    private static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+    private final BlockingQueue<Buffer> idle = new LinkedBlockingQueue<>();
+
+    Buffer acquire() {
+        Buffer b = idle.poll();
+        return b != null ? b : new Buffer();
+    }
+
+    void release(Buffer b) {
+        if (b.capacity() > MAX_RETAINED_SIZE) return;
+
+        b.reset();
+        idle.offer(b);
+    }
+
+}
@@ -0,0 +1,162 @@
+package org.bold.http;
+
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool of repository connections, leased by request threads for the duration of a request (connections are
+ * not thread-safe). Connections are opened lazily, up to the pool size; request threads then wait for a connection to
+ * be released.
+ */
+public class ConnectionPool {
+
+    private final Supplier<RepositoryConnection> factory;
+
+    private final int size;
+
+    private final BlockingQueue<RepositoryConnection> idle;
+
+    private int opened = 0;
+
+    private int inUse = 0;
+
+    private int maxInUse = 0;
+
+    private Runnable rollbackListener = null;
+
+    private long leases = 0;
+
+    private long waits = 0;
+
+    private long totalWait = 0;
+
+    private long maxWait = 0;
+
+    /**
+     * @param factory factory of connections to the simulation store (with history listeners)
+     * @param size maximum number of connections open at the same time
+     */
+    public ConnectionPool(Supplier<RepositoryConnection> factory, int size) {
+        if (size < 1) throw new IllegalArgumentException("Connection pool must have at least one connection");
+
+        this.factory = factory;
+        this.size = size;
+        this.idle = new ArrayBlockingQueue<>(size);
+    }
+
+    /**
+     * @param listener called (in the releasing thread) when a transaction left active by a request is rolled back
+     */
+    public ConnectionPool setRollbackListener(Runnable listener) {
+        this.rollbackListener = listener;
+        return this;
+    }
+
+    /**
+     * Takes an idle connection, opens a new one if none is idle or waits for a connection to be released if the pool
+     * is exhausted.
+     */
+    public RepositoryConnection lease() {
+        RepositoryConnection con = idle.poll();
+
+        if (con == null && reserve()) {
+            try {
+                con = factory.get();
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    opened--;
+                }
+                throw e;
+            }
+        }
+
+        long wait = 0;
+        if (con == null) {
+            long before = System.nanoTime();
+            try {
+                con = idle.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RepositoryException(e);
+            }
+            wait = System.nanoTime() - before;
+        }
+
+        synchronized (this) {
+            leases++;
+            inUse++;
+            maxInUse = Math.max(maxInUse, inUse);
+            if (wait > 0) {
+                waits++;
+                totalWait += wait;
+                maxWait = Math.max(maxWait, wait);
+            }
+        }
+
+        return con;
+    }
+
+    /**
+     * Returns a leased connection to the pool, rolling back any transaction left open (e.g. after an exception).
+     */
+    public void release(RepositoryConnection con) {
+        try {
+            if (con.isActive()) {
+                con.rollback();
+                if (rollbackListener != null) rollbackListener.run();
+            }
+        } catch (RepositoryException e) {
+            e.printStackTrace(); // TODO clean error handling
+        }
+
+        synchronized (this) {
+            inUse--;
+        }
+
+        idle.add(con);
+    }
+
+    /**
+     * Closes idle connections (connections still leased are not closed).
+     */
+    public void close() {
+        RepositoryConnection con;
+        while ((con = idle.poll()) != null) {
+            con.close();
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public synchronized int getInUse() {
+        return inUse;
+    }
+
+    public synchronized long getLeases() {
+        return leases;
+    }
+
+    /**
+     * Writes pool metrics as tab-separated values (waits are leases for which no connection was available).
+     */
+    public synchronized void writeStatistics(Writer w) throws IOException {
+        w.append("# \"size\"\t\"opened\"\t\"in use\"\t\"max in use\"\t\"leases\"\t\"waits\"\t\"mean wait (ns)\"\t\"max wait (ns)\"\n");
+        w.append(String.format("%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\n", size, opened, inUse, maxInUse, leases, waits, waits > 0 ? totalWait / waits : 0, maxWait));
+    }
+
+    private synchronized boolean reserve() {
+        if (opened >= size) return false;
+
+        opened++;
+        return true;
+    }
+
+}
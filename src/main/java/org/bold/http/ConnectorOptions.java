@@ -0,0 +1,106 @@
+package org.bold.http;
+
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+
+/**
+ * Configuration of the connector agents connect to: persistent connections (kept open for the idle timeout),
+ * acceptor/selector threads, output buffers and cleartext HTTP/2 (h2c), which multiplexes concurrent requests of an
+ * agent over a single connection.
+ */
+public class ConnectorOptions {
+
+    private int acceptors = -1;
+
+    private int selectors = -1;
+
+    private int acceptQueueSize = 0;
+
+    private long idleTimeout = 30000;
+
+    private int outputBufferSize = 32 * 1024;
+
+    private boolean h2c = false;
+
+    private int maxConcurrentStreams = 128;
+
+    /**
+     * @param acceptors number of acceptor threads (-1: chosen by Jetty from the number of processors)
+     */
+    public ConnectorOptions setAcceptors(int acceptors) {
+        this.acceptors = acceptors;
+        return this;
+    }
+
+    /**
+     * @param selectors number of selector threads (-1: chosen by Jetty from the number of processors)
+     */
+    public ConnectorOptions setSelectors(int selectors) {
+        this.selectors = selectors;
+        return this;
+    }
+
+    /**
+     * @param size maximum number of pending connections (0: system default)
+     */
+    public ConnectorOptions setAcceptQueueSize(int size) {
+        this.acceptQueueSize = size;
+        return this;
+    }
+
+    /**
+     * @param timeout time (in ms) an idle persistent connection is kept open
+     */
+    public ConnectorOptions setIdleTimeout(long timeout) {
+        this.idleTimeout = timeout;
+        return this;
+    }
+
+    /**
+     * @param size size of response buffers (in bytes); responses that fit are sent with a Content-Length header
+     */
+    public ConnectorOptions setOutputBufferSize(int size) {
+        this.outputBufferSize = size;
+        return this;
+    }
+
+    /**
+     * @param enabled whether clients may upgrade to (or directly speak) cleartext HTTP/2
+     * @param maxStreams maximum number of concurrent requests on an HTTP/2 connection
+     */
+    public ConnectorOptions setH2c(boolean enabled, int maxStreams) {
+        this.h2c = enabled;
+        this.maxConcurrentStreams = maxStreams;
+        return this;
+    }
+
+    public ServerConnector createConnector(Server server, String host, int port) {
+        HttpConfiguration config = new HttpConfiguration();
+        config.setOutputBufferSize(outputBufferSize);
+        config.setSendServerVersion(false);
+
+        ConnectionFactory http11 = new HttpConnectionFactory(config);
+
+        ServerConnector connector;
+        if (h2c) {
+            HTTP2CServerConnectionFactory http2 = new HTTP2CServerConnectionFactory(config);
+            http2.setMaxConcurrentStreams(maxConcurrentStreams);
+
+            connector = new ServerConnector(server, acceptors, selectors, http11, http2);
+        } else {
+            connector = new ServerConnector(server, acceptors, selectors, http11);
+        }
+
+        connector.setHost(host);
+        connector.setPort(port);
+        connector.setIdleTimeout(idleTimeout);
+        connector.setAcceptQueueSize(acceptQueueSize);
+
+        return connector;
+    }
+
+}
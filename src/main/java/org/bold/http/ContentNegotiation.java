@@ -0,0 +1,161 @@
+package org.bold.http;
+
+import org.bold.io.RDFValueFormats;
+import org.eclipse.rdf4j.common.lang.FileFormat;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.Rio;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Selection of RDF formats from Accept and Content-Type headers (RFC 7231): media ranges of an Accept header are
+ * weighted by their q-value, the most specific range winning among ranges of equal weight.
+ */
+class ContentNegotiation {
+
+    /**
+     * Formats chosen for media ranges with wildcards (e.g. application/*), in order of preference (cheapest first).
+     */
+    private static final List<RDFFormat> PREFERRED_FORMATS = Arrays.asList(
+            RDFFormat.BINARY,
+            RDFFormat.NTRIPLES,
+            RDFFormat.NQUADS,
+            RDFFormat.TURTLE,
+            RDFFormat.TRIG,
+            RDFFormat.JSONLD,
+            RDFFormat.RDFXML
+    );
+
+    private ContentNegotiation() {
+        // static methods only
+    }
+
+    /**
+     * @param accept value of an Accept header, possibly null
+     * @param defaultFormat format returned for the range of all media types (and if the header is absent)
+     * @param valueFormats whether formats of literal values (see {@link RDFValueFormats}) may be selected
+     * @return the format to write the response in, null if no acceptable format is available
+     */
+    static RDFFormat getWriterFormat(String accept, RDFFormat defaultFormat, boolean valueFormats) {
+        return select(accept, defaultFormat,
+                prefix -> getWriterFormatForRange(prefix, defaultFormat),
+                mediaType -> getWriterFormatForMediaType(mediaType, valueFormats));
+    }
+
+    /**
+     * Selects one of the given formats (e.g. SPARQL result formats), matched by any of their media types.
+     *
+     * @param accept value of an Accept header, possibly null
+     * @param candidates available formats, in order of preference
+     * @param defaultFormat format returned for the range of all media types (and if the header is absent)
+     * @return the format to write the response in, null if no acceptable format is available
+     */
+    static <F extends FileFormat> F getFormat(String accept, Collection<F> candidates, F defaultFormat) {
+        return select(accept, defaultFormat, prefix -> {
+            if (defaultFormat.getDefaultMIMEType().startsWith(prefix)) return defaultFormat;
+            return candidates.stream().filter(f -> f.getDefaultMIMEType().startsWith(prefix)).findFirst().orElse(null);
+        }, mediaType -> candidates.stream().filter(f -> f.hasMIMEType(mediaType)).findFirst().orElse(null));
+    }
+
+    /**
+     * @param contentType value of a Content-Type header (possibly with parameters, e.g. charset), possibly null
+     * @param defaultFormat format returned if the header is absent
+     * @return the format to parse the request body with, null if the media type is not supported
+     */
+    static RDFFormat getParserFormat(String contentType, RDFFormat defaultFormat) {
+        if (contentType == null) return defaultFormat;
+
+        String mediaType = contentType.split(";")[0].trim().toLowerCase();
+        if (mediaType.isEmpty() || mediaType.equals("*/*")) return defaultFormat;
+
+        Optional<RDFFormat> opt = Rio.getParserFormatForMIMEType(mediaType);
+        if (opt.isPresent()) return opt.get();
+
+        return RDFValueFormats.getFormatForMediaType(mediaType);
+    }
+
+    private static RDFFormat getWriterFormatForMediaType(String mediaType, boolean valueFormats) {
+        RDFFormat valueFormat = RDFValueFormats.getFormatForMediaType(mediaType); // note: also registers value writers
+        if (valueFormat != null) return valueFormats ? valueFormat : null;
+
+        return Rio.getWriterFormatForMIMEType(mediaType).orElse(null);
+    }
+
+    private static RDFFormat getWriterFormatForRange(String prefix, RDFFormat defaultFormat) {
+        if (defaultFormat.getDefaultMIMEType().startsWith(prefix)) return defaultFormat;
+
+        for (RDFFormat f : PREFERRED_FORMATS) {
+            if (f.getDefaultMIMEType().startsWith(prefix)) return f;
+        }
+
+        return null;
+    }
+
+    /**
+     * Ranks the media ranges of an Accept header by q-value, then by specificity (full media type, then type/*, then
+     * the range of all media types), and returns the format of the best range for which a format is available.
+     *
+     * @param forRange format for a range with a wildcard subtype, given the range's prefix (e.g. "text/")
+     * @param forMediaType format for a full media type
+     */
+    private static <F> F select(String accept, F defaultFormat, Function<String, F> forRange, Function<String, F> forMediaType) {
+        if (accept == null || accept.trim().isEmpty()) return defaultFormat;
+
+        F best = null;
+        double bestWeight = 0;
+        int bestSpecificity = -1;
+
+        for (String range : accept.split(",")) {
+            String[] parts = range.split(";");
+            String mediaType = parts[0].trim().toLowerCase();
+
+            double weight = getWeight(parts);
+            if (weight <= 0) continue;
+
+            F format;
+            int specificity;
+            if (mediaType.equals("*/*") || mediaType.equals("*")) {
+                format = defaultFormat;
+                specificity = 0;
+            } else if (mediaType.endsWith("/*")) {
+                format = forRange.apply(mediaType.substring(0, mediaType.length() - 1));
+                specificity = 1;
+            } else {
+                format = forMediaType.apply(mediaType);
+                specificity = 2;
+            }
+
+            if (format != null && (weight > bestWeight || (weight == bestWeight && specificity > bestSpecificity))) {
+                best = format;
+                bestWeight = weight;
+                bestSpecificity = specificity;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * @param parts media range and its parameters
+     * @return the q-value of the media range (1 if absent, 0 if invalid)
+     */
+    private static double getWeight(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String[] param = parts[i].trim().split("=");
+            if (param.length == 2 && param[0].trim().equals("q")) {
+                try {
+                    return Double.parseDouble(param[1].trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+
+        return 1;
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.bold.http;
+
+import org.eclipse.rdf4j.rio.RDFFormat;
+
+/**
+ * Entity tags of graph representations, derived from the version of the graph (see {@link GraphIndex}) and the format
+ * of the representation.
+ */
+public class ETags {
+
+    private ETags() {
+        // static methods only
+    }
+
+    public static String of(long version, RDFFormat format) {
+        return "\"" + version + "-" + format.getDefaultFileExtension() + "\"";
+    }
+
+    /**
+     * @param cursor cursor of a page of a container (0 for the first page), so that each page has its own entity tag
+     */
+    public static String of(long version, long cursor, RDFFormat format) {
+        return "\"" + version + "-p" + cursor + "-" + format.getDefaultFileExtension() + "\"";
+    }
+
+    /**
+     * @param header value of an If-None-Match header (list of entity tags or "*"), possibly null
+     * @return true if the header matches the given entity tag (weak comparison)
+     */
+    public static boolean matches(String header, String etag) {
+        if (header == null) return false;
+
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+
+            if (tag.equals("*") || tag.equals(etag)) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Evaluates the preconditions of a request changing a graph, by strong comparison of the version of the graph
+     * with the entity tags of the request (whatever the format they were given for).
+     *
+     * @param ifMatch value of an If-Match header, possibly null
+     * @param ifNoneMatch value of an If-None-Match header, possibly null
+     * @param version current version of the graph
+     * @param exists whether the graph currently exists
+     * @return false if the request must fail with 412 Precondition Failed
+     */
+    public static boolean preconditionsHold(String ifMatch, String ifNoneMatch, long version, boolean exists) {
+        if (ifMatch != null && !listsVersion(ifMatch, version, exists)) return false;
+        if (ifNoneMatch != null && listsVersion(ifNoneMatch, version, exists)) return false;
+
+        return true;
+    }
+
+    private static boolean listsVersion(String header, long version, boolean exists) {
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+
+            if (tag.equals("*")) {
+                if (exists) return true;
+            } else if (exists && tag.startsWith("\"") && tag.endsWith("\"")) {
+                int end = tag.indexOf('-');
+                if (end > 0 && tag.substring(1, end).equals(String.valueOf(version))) return true;
+            }
+        }
+
+        return false;
+    }
+
+}
@@ -0,0 +1,86 @@
+package org.bold.http;
+
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.model.util.Models;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+
+/**
+ * Statements to remove from and add to a named graph to replace its content, so that only statements that actually
+ * change are written to the store (and notified to listeners).
+ *
+ * Blank nodes of the new content cannot be matched against those of the store by identity: statements with blank
+ * nodes are left untouched if they form a graph isomorphic to the one in the store, replaced altogether otherwise.
+ */
+class GraphDiff {
+
+    private final Model removals = new LinkedHashModel();
+
+    private final Model additions = new LinkedHashModel();
+
+    /**
+     * @param current statements of the graph in the store
+     * @param proposed new content of the graph (in any context)
+     * @param graphName name of the graph
+     */
+    GraphDiff(Iterable<Statement> current, Iterable<Statement> proposed, Resource graphName) {
+        Model currentGround = new LinkedHashModel();
+        Model currentBlank = new LinkedHashModel();
+        for (Statement st : current) {
+            (hasBlankNode(st) ? currentBlank : currentGround).add(st.getSubject(), st.getPredicate(), st.getObject(), graphName);
+        }
+
+        Model proposedGround = new LinkedHashModel();
+        Model proposedBlank = new LinkedHashModel();
+        for (Statement st : proposed) {
+            (hasBlankNode(st) ? proposedBlank : proposedGround).add(st.getSubject(), st.getPredicate(), st.getObject(), graphName);
+        }
+
+        for (Statement st : currentGround) {
+            if (!proposedGround.contains(st)) removals.add(st);
+        }
+
+        for (Statement st : proposedGround) {
+            if (!currentGround.contains(st)) additions.add(st);
+        }
+
+        if (!Models.isomorphic(currentBlank, proposedBlank)) {
+            removals.addAll(currentBlank);
+            additions.addAll(proposedBlank);
+        }
+    }
+
+    /**
+     * Reads the (explicit) statements of the graph with the given connection and computes the difference.
+     */
+    static GraphDiff of(RepositoryConnection connection, Iterable<Statement> proposed, Resource graphName) {
+        Model current = new LinkedHashModel();
+        connection.getStatements(null, null, null, false, graphName).forEach(current::add);
+
+        return new GraphDiff(current, proposed, graphName);
+    }
+
+    /**
+     * Applies the difference with the given connection (in the connection's transaction, if any).
+     */
+    void apply(RepositoryConnection connection) {
+        if (!removals.isEmpty()) connection.remove(removals);
+        if (!additions.isEmpty()) connection.add(additions);
+    }
+
+    Model getRemovals() {
+        return removals;
+    }
+
+    Model getAdditions() {
+        return additions;
+    }
+
+    private static boolean hasBlankNode(Statement st) {
+        return st.getSubject() instanceof BNode || st.getObject() instanceof BNode;
+    }
+
+}
@@ -0,0 +1,384 @@
+package org.bold.http;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.vocabulary.LDP;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.sail.SailChangedEvent;
+import org.eclipse.rdf4j.sail.SailChangedListener;
+import org.eclipse.rdf4j.sail.SailConnectionListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Version of each named graph of the simulation store, changing whenever a statement of the graph is added or removed.
+ * Versions are drawn from a single counter, so that a version is never reused (even after a graph is deleted).
+ *
+ * Statements are notified before they are committed: a concurrent reader may still see the previous content of the
+ * graph under the new version. Versions of the graphs a thread changed are therefore incremented again when the
+ * thread commits (the store notifies commits synchronously, in the committing thread).
+ *
+ * The index also keeps metadata of each graph (number of statements, container type), updated when changes are
+ * committed, so that handlers need not query the store to know whether a graph exists or is an LDP container, and the
+ * containment triples of each graph (ldp:contains), in the order they were committed, as well as the other statements
+ * of containers (once read from the store, see {@link #setDescription(Resource, long, Collection)}). Changes that are
+ * rolled back must be discarded (see {@link #discard()}). The index finally keeps a lock per graph (striped), under which agents'
+ * writes to a graph are serialized.
+ */
+public class GraphIndex implements SailConnectionListener, SailChangedListener {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final AtomicLong counter = new AtomicLong();
+
+    private final Map<Resource, Long> versions = new ConcurrentHashMap<>();
+
+    /**
+     * Changes notified by a thread since its last commit.
+     */
+    private static class Transaction {
+
+        private final Set<Resource> graphs = new HashSet<>();
+
+        private final Map<Resource, Integer> sizes = new HashMap<>();
+
+        /**
+         * Container type statements, added (true) or removed (false).
+         */
+        private final Map<Statement, Boolean> types = new LinkedHashMap<>();
+
+        /**
+         * Containment triples, added (true) or removed (false).
+         */
+        private final Map<Statement, Boolean> containments = new LinkedHashMap<>();
+
+        /**
+         * Other statements of containers, added (true) or removed (false).
+         */
+        private final Map<Statement, Boolean> descriptions = new LinkedHashMap<>();
+
+        void clear() {
+            graphs.clear();
+            sizes.clear();
+            types.clear();
+            containments.clear();
+            descriptions.clear();
+        }
+
+    }
+
+    private static final Set<IRI> CONTAINER_TYPES = new HashSet<>(Arrays.asList(
+            LDP.BASIC_CONTAINER,
+            LDP.DIRECT_CONTAINER,
+            LDP.INDIRECT_CONTAINER,
+            LDPHandler.LDP_ORDERED_CONTAINER
+    ));
+
+    private final ThreadLocal<Transaction> pending = ThreadLocal.withInitial(Transaction::new);
+
+    private final Map<Resource, Integer> sizes = new ConcurrentHashMap<>();
+
+    private final Map<Resource, IRI> containerTypes = new ConcurrentHashMap<>();
+
+    /**
+     * Containment triples of a graph, by position (drawn from the version counter, hence increasing).
+     */
+    private static class Containments {
+
+        private final Map<Statement, Long> positions = new HashMap<>();
+
+        private final NavigableMap<Long, Statement> statements = new TreeMap<>();
+
+        synchronized void add(Statement st, long position) {
+            if (positions.putIfAbsent(st, position) == null) statements.put(position, st);
+        }
+
+        synchronized void remove(Statement st) {
+            Long position = positions.remove(st);
+            if (position != null) statements.remove(position);
+        }
+
+        synchronized boolean isEmpty() {
+            return positions.isEmpty();
+        }
+
+        synchronized int size() {
+            return positions.size();
+        }
+
+        synchronized Set<Statement> toSet() {
+            return new HashSet<>(positions.keySet());
+        }
+
+        synchronized SortedMap<Long, Statement> after(long position, int limit) {
+            SortedMap<Long, Statement> page = new TreeMap<>();
+            for (Map.Entry<Long, Statement> e : statements.tailMap(position, false).entrySet()) {
+                if (page.size() == limit) break;
+                page.put(e.getKey(), e.getValue());
+            }
+            return page;
+        }
+
+    }
+
+    private final Map<Resource, Containments> containments = new ConcurrentHashMap<>();
+
+    /**
+     * Containment triples, by contained resource.
+     */
+    private final Map<Value, Set<Statement>> containers = new ConcurrentHashMap<>();
+
+    /**
+     * Statements of containers other than containment triples, for containers whose statements were read once.
+     */
+    private final Map<Resource, Set<Statement>> descriptions = new ConcurrentHashMap<>();
+
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
+
+    public GraphIndex() {
+        for (int i = 0; i < locks.length; i++) locks[i] = new ReentrantLock();
+    }
+
+    /**
+     * @return the current version of the graph (0 if the graph never changed)
+     */
+    public long getVersion(Resource graphName) {
+        return versions.getOrDefault(graphName, 0l);
+    }
+
+    /**
+     * @return true if the graph has (committed) statements
+     */
+    public boolean exists(Resource graphName) {
+        return sizes.containsKey(graphName);
+    }
+
+    /**
+     * @return the number of (committed) statements of the graph
+     */
+    public int getStatementCount(Resource graphName) {
+        return sizes.getOrDefault(graphName, 0);
+    }
+
+    /**
+     * @return the LDP container type of the graph (asserted as rdf:type of the graph, in the graph), null if the graph
+     * is not a container
+     */
+    public IRI getContainerType(Resource graphName) {
+        return containerTypes.get(graphName);
+    }
+
+    /**
+     * @return the containment triples (ldp:contains) of the graph, with the graph as context
+     */
+    public Set<Statement> getContainments(Resource graphName) {
+        Containments c = containments.get(graphName);
+        return c == null ? Collections.emptySet() : c.toSet();
+    }
+
+    /**
+     * Containment triples are ordered by insertion, so that a position remains valid (as a cursor) while containment
+     * triples are added or removed.
+     *
+     * @param after position of the last containment triple already seen (0 to start from the first one)
+     * @param limit maximum number of containment triples returned
+     * @return the containment triples of the graph following the given position, by position
+     */
+    public SortedMap<Long, Statement> getContainments(Resource graphName, long after, int limit) {
+        Containments c = containments.get(graphName);
+        return c == null ? Collections.emptySortedMap() : c.after(after, limit);
+    }
+
+    /**
+     * @return the statements of the container other than containment triples, null if they are not indexed yet (to be
+     * read from the store)
+     */
+    public Set<Statement> getDescription(Resource graphName) {
+        Set<Statement> set = descriptions.get(graphName);
+        return set == null ? null : Collections.unmodifiableSet(set);
+    }
+
+    /**
+     * Indexes the statements of a container other than containment triples, as read from the store. Subsequent changes
+     * are then applied to the index when they are committed.
+     *
+     * @param version version of the graph before statements were read (nothing is indexed if the graph changed since)
+     */
+    public void setDescription(Resource graphName, long version, Collection<Statement> statements) {
+        // note: commits update descriptions under the same key, after incrementing the version of the graph
+        descriptions.compute(graphName, (g, set) -> {
+            if (set != null || getVersion(g) != version || !containerTypes.containsKey(g)) return set;
+
+            Set<Statement> copy = ConcurrentHashMap.newKeySet();
+            copy.addAll(statements);
+            return copy;
+        });
+    }
+
+    /**
+     * @return the graphs in which the given resource is contained (as the object of an ldp:contains triple)
+     */
+    public Set<Resource> getContainers(Resource member) {
+        Set<Statement> set = containers.get(member);
+        if (set == null) return Collections.emptySet();
+
+        Set<Resource> graphs = new HashSet<>();
+        for (Statement st : set) graphs.add(st.getContext());
+
+        return graphs;
+    }
+
+    /**
+     * @return the number of containment triples (ldp:contains) of the graph
+     */
+    public int getContainmentCount(Resource graphName) {
+        Containments c = containments.get(graphName);
+        return c == null ? 0 : c.size();
+    }
+
+    /**
+     * @return the lock under which writes to the graph are serialized (shared with other graphs)
+     */
+    public Lock getLock(Resource graphName) {
+        return locks[stripe(graphName)];
+    }
+
+    /**
+     * @return the locks of all given graphs, in a global order (to be acquired in that order, to avoid deadlocks)
+     */
+    public List<Lock> getLocks(Collection<? extends Resource> graphNames) {
+        Set<Integer> stripes = new TreeSet<>();
+        for (Resource g : graphNames) stripes.add(stripe(g));
+
+        List<Lock> list = new ArrayList<>();
+        for (int i : stripes) list.add(locks[i]);
+
+        return list;
+    }
+
+    @Override
+    public void statementAdded(Statement st) {
+        changed(st, 1);
+    }
+
+    @Override
+    public void statementRemoved(Statement st) {
+        changed(st, -1);
+    }
+
+    @Override
+    public void sailChanged(SailChangedEvent event) {
+        Transaction tx = pending.get();
+
+        for (Resource g : tx.graphs) versions.put(g, counter.incrementAndGet());
+
+        for (Map.Entry<Resource, Integer> e : tx.sizes.entrySet()) {
+            sizes.compute(e.getKey(), (g, size) -> {
+                int n = (size == null ? 0 : size) + e.getValue();
+                return n > 0 ? n : null;
+            });
+        }
+
+        for (Map.Entry<Statement, Boolean> e : tx.types.entrySet()) {
+            Statement st = e.getKey();
+            if (e.getValue()) containerTypes.put(st.getContext(), (IRI) st.getObject());
+            else if (containerTypes.remove(st.getContext(), st.getObject())) descriptions.remove(st.getContext());
+        }
+
+        for (Map.Entry<Statement, Boolean> e : tx.descriptions.entrySet()) {
+            Statement st = e.getKey();
+            descriptions.computeIfPresent(st.getContext(), (g, set) -> {
+                if (e.getValue()) set.add(st);
+                else set.remove(st);
+                return set;
+            });
+        }
+
+        for (Map.Entry<Statement, Boolean> e : tx.containments.entrySet()) {
+            Statement st = e.getKey();
+            if (e.getValue()) {
+                containments.compute(st.getContext(), (g, c) -> {
+                    if (c == null) c = new Containments();
+                    c.add(st, counter.incrementAndGet());
+                    return c;
+                });
+                containers.compute(st.getObject(), (m, set) -> {
+                    if (set == null) set = ConcurrentHashMap.newKeySet();
+                    set.add(st);
+                    return set;
+                });
+            } else {
+                containments.computeIfPresent(st.getContext(), (g, c) -> {
+                    c.remove(st);
+                    return c.isEmpty() ? null : c;
+                });
+                containers.computeIfPresent(st.getObject(), (m, set) -> {
+                    set.remove(st);
+                    return set.isEmpty() ? null : set;
+                });
+            }
+        }
+
+        tx.clear();
+    }
+
+    /**
+     * Discards changes notified by the current thread since its last commit, to be called once they are rolled back.
+     */
+    public void discard() {
+        Transaction tx = pending.get();
+
+        // note: content is reverted, readers must not keep what they saw during the transaction
+        for (Resource g : tx.graphs) versions.put(g, counter.incrementAndGet());
+
+        tx.clear();
+    }
+
+    private int stripe(Resource graphName) {
+        return Math.floorMod(graphName.hashCode(), locks.length);
+    }
+
+    private void changed(Statement st, int delta) {
+        Resource graphName = st.getContext();
+        if (graphName == null) return; // default graph, not exposed to agents
+
+        versions.put(graphName, counter.incrementAndGet());
+
+        Transaction tx = pending.get();
+        tx.graphs.add(graphName);
+        tx.sizes.merge(graphName, delta, Integer::sum);
+
+        if (st.getSubject().equals(graphName) && st.getPredicate().equals(RDF.TYPE) && CONTAINER_TYPES.contains(st.getObject())) {
+            tx.types.remove(st); // note: the last change of the statement prevails
+            tx.types.put(st, delta > 0);
+        }
+
+        if (st.getPredicate().equals(LDP.CONTAINS)) {
+            tx.containments.remove(st);
+            tx.containments.put(st, delta > 0);
+        } else if (containerTypes.containsKey(graphName)) {
+            tx.descriptions.remove(st);
+            tx.descriptions.put(st, delta > 0);
+        }
+    }
+
+}
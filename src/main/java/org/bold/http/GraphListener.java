@@ -2,6 +2,8 @@ package org.bold.http;
 
 import org.eclipse.rdf4j.model.IRI;
 
+import java.util.Map;
+
 public interface GraphListener {
 
     void graphRetrieved(IRI graphName, Long opTime);
@@ -12,4 +14,9 @@ public interface GraphListener {
 
     void graphExtended(IRI graphName, Long opTime);
 
+    /**
+     * @param statementCounts number of statements written to each graph changed by the batch
+     */
+    void batchApplied(Map<IRI, Integer> statementCounts, Long opTime);
+
 }
@@ -1,10 +1,10 @@
 package org.bold.http;
 
-import org.bold.io.RDFValueFormats;
 import org.bold.sim.Vocabulary;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Model;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.eclipse.rdf4j.rio.*;
 
@@ -13,8 +13,8 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.net.URI;
 import java.util.HashSet;
-import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Basic implementation of the SPARQL Graph Store protocol, giving
@@ -28,13 +28,31 @@ public class GraphStoreHandler extends AbstractHandler implements GraphHandler {
 
     private final URI baseURI;
 
-    private final RepositoryConnection connection;
+    private final ConnectionPool connections;
+
+    private final GroupCommit writes;
+
+    private final GraphIndex index;
+
+    private final RepresentationCache cache;
+
+    private final BufferPool buffers = new BufferPool();
 
     private final Set<GraphListener> listeners = new HashSet<>();
 
-    public GraphStoreHandler(URI base, RepositoryConnection con) {
+    /**
+     * @param base base URI of named graphs
+     * @param pool connections to the simulation store, one being leased per read
+     * @param writes write path of requests, committing concurrent writes together
+     * @param index versions and metadata of named graphs (entity tags are derived from versions)
+     * @param cache cache of serialized graphs
+     */
+    public GraphStoreHandler(URI base, ConnectionPool pool, GroupCommit writes, GraphIndex index, RepresentationCache cache) {
         baseURI = base;
-        connection = con;
+        connections = pool;
+        this.writes = writes;
+        this.index = index;
+        this.cache = cache;
     }
 
     public void addGraphListener(GraphListener listener) {
@@ -49,44 +67,99 @@ public class GraphStoreHandler extends AbstractHandler implements GraphHandler {
     public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
         IRI graphName = Vocabulary.VALUE_FACTORY.createIRI(baseURI.resolve(target).toString()); // direct addressing
 
-        boolean created = !exists(graphName);
+        // note: writes to a graph are serialized, so that preconditions still hold when changes are committed
+        Lock lock = baseRequest.getMethod().equals("GET") ? null : index.getLock(graphName);
+        if (lock != null) lock.lock();
+
+        AsyncWriter body = null;
+        try {
+            // note: only reads need a connection, writes are committed by the group commit
+            RepositoryConnection connection = lock == null ? connections.lease() : null;
+            try {
+                body = handle(graphName, baseRequest, request, response, connection);
+            } finally {
+                if (connection != null) connections.release(connection);
+            }
+        } finally {
+            if (lock != null) lock.unlock();
+        }
+
+        // note: the body is written once the connection is released, so that slow clients do not hold it
+        if (body != null) body.write(request, response);
+    }
+
+    /**
+     * @return the body of the response, to be written asynchronously (null if the response has no body)
+     */
+    private AsyncWriter handle(IRI graphName, Request baseRequest, HttpServletRequest request, HttpServletResponse response, RepositoryConnection connection) throws IOException {
+        boolean created = !index.exists(graphName);
 
         // TODO use a ServletFilter instead, for processing Accept/Content-Type
 
         String acceptString = request.getHeader("Accept");
-        RDFFormat accept = getFormatForMediaType(acceptString);
+        RDFFormat accept = ContentNegotiation.getWriterFormat(acceptString, DEFAULT_RDF_FORMAT, true);
 
         if (accept == null) {
             response.sendError(HttpServletResponse.SC_NOT_ACCEPTABLE);
             baseRequest.setHandled(true);
-            return;
+            return null;
         }
 
         String contentTypeString = request.getHeader("Content-Type");
-        RDFFormat contentType = getFormatForMediaType(contentTypeString);
+        RDFFormat contentType = ContentNegotiation.getParserFormat(contentTypeString, DEFAULT_RDF_FORMAT);
 
         if (contentType == null) {
             response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
             baseRequest.setHandled(true);
-            return;
+            return null;
         }
 
         long before, after;
+        AsyncWriter body = null;
+
+        if (!baseRequest.getMethod().equals("GET") && !ETags.preconditionsHold(request.getHeader("If-Match"), request.getHeader("If-None-Match"), index.getVersion(graphName), !created)) {
+            response.sendError(HttpServletResponse.SC_PRECONDITION_FAILED);
+            baseRequest.setHandled(true);
+            return null;
+        }
+
+        // note: the graph may still be changed by continuous updates (which take no lock) until the write is applied
+        Long expected = request.getHeader("If-Match") != null || request.getHeader("If-None-Match") != null ? index.getVersion(graphName) : null;
 
         try {
             switch (baseRequest.getMethod()) {
                 case "GET":
                     if (!created) {
-                        response.setHeader("Content-Type", accept.getDefaultMIMEType());
-
-                        RDFWriter writer = Rio.createWriter(accept, response.getOutputStream());
-
                         before = System.currentTimeMillis();
-                        connection.export(writer, graphName);
+                        long version = index.getVersion(graphName);
+                        String etag = ETags.of(version, accept);
+
+                        response.setHeader("ETag", etag);
+                        response.setHeader("Vary", "Accept");
+
+                        if (ETags.matches(request.getHeader("If-None-Match"), etag)) {
+                            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                        } else {
+                            byte[] content = cache.get(graphName, accept, version);
+                            if (content != null) {
+                                body = new AsyncWriter(content, content.length, null);
+                            } else {
+                                BufferPool.Buffer buffer = buffers.acquire();
+                                connection.export(Rio.createWriter(accept, buffer), graphName);
+
+                                // note: not cached if the graph changed during export
+                                if (index.getVersion(graphName) == version && cache.fits(buffer.size())) {
+                                    cache.put(graphName, accept, version, buffer.toByteArray());
+                                }
+
+                                body = new AsyncWriter(buffer.array(), buffer.size(), () -> buffers.release(buffer));
+                            }
+
+                            response.setHeader("Content-Type", accept.getDefaultMIMEType());
+                            response.setStatus(HttpServletResponse.SC_OK);
+                        }
                         after = System.currentTimeMillis();
 
-                        response.setStatus(HttpServletResponse.SC_OK);
-
                         for (GraphListener l : listeners) {
                             l.graphRetrieved(graphName, after - before);
                         }
@@ -96,15 +169,13 @@ public class GraphStoreHandler extends AbstractHandler implements GraphHandler {
                     break;
 
                 case "PUT":
-                    // TODO test transaction isolation (and rollback if necessary)
                     before = System.currentTimeMillis();
-                    connection.begin();
-                    connection.clear(graphName);
-                    connection.add(request.getInputStream(), baseRequest.getRequestURI(), contentType, graphName);
-                    connection.commit();
+                    Model model = Rio.parse(request.getInputStream(), baseRequest.getRequestURI(), contentType);
+                    commit(graphName, expected, con -> GraphDiff.of(con, model, graphName).apply(con)); // only changed statements
                     after = System.currentTimeMillis();
 
                     response.setStatus(created ? HttpServletResponse.SC_CREATED : HttpServletResponse.SC_NO_CONTENT);
+                    response.setHeader("ETag", ETags.of(index.getVersion(graphName), contentType));
 
                     for (GraphListener l : listeners) {
                         l.graphReplaced(graphName, after - before);
@@ -113,7 +184,8 @@ public class GraphStoreHandler extends AbstractHandler implements GraphHandler {
 
                 case "POST":
                     before = System.currentTimeMillis();
-                    connection.add(request.getInputStream(), baseRequest.getRequestURI(), contentType, graphName);
+                    Model addition = Rio.parse(request.getInputStream(), baseRequest.getRequestURI(), contentType);
+                    commit(graphName, expected, con -> con.add(addition, graphName));
                     after = System.currentTimeMillis();
 
                     response.setStatus(created ? HttpServletResponse.SC_CREATED : HttpServletResponse.SC_NO_CONTENT);
@@ -126,7 +198,7 @@ public class GraphStoreHandler extends AbstractHandler implements GraphHandler {
                 case "DELETE":
                     if (!created) {
                         before = System.currentTimeMillis();
-                        connection.clear(graphName);
+                        commit(graphName, expected, con -> con.clear(graphName));
                         after = System.currentTimeMillis();
 
                         response.setStatus(HttpServletResponse.SC_NO_CONTENT);
@@ -145,24 +217,22 @@ public class GraphStoreHandler extends AbstractHandler implements GraphHandler {
             }
         } catch (RDFParseException e) {
             response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        } catch (GroupCommit.Rejected e) {
+            response.sendError(HttpServletResponse.SC_PRECONDITION_FAILED);
         } // other exceptions caught by jetty and 500 Internal Server Error returned
 
         baseRequest.setHandled(true);
-    }
 
-    private boolean exists(IRI graphName) {
-        return connection.hasStatement(null, null, null, false, graphName);
+        return body;
     }
 
-    private RDFFormat getFormatForMediaType(String mediaType) {
-        if (mediaType == null || mediaType.equals("*/*")) return DEFAULT_RDF_FORMAT;
-
-        // TODO parse conneg header if more complex value
-
-        Optional<RDFFormat> opt = Rio.getParserFormatForMIMEType(mediaType);
-        if (opt.isPresent()) return opt.get();
-
-        return RDFValueFormats.getFormatForMediaType(mediaType);
+    /**
+     * Commits a write, rejected if the request has preconditions and the graph changed since they were evaluated.
+     *
+     * @param expected version of the graph preconditions were evaluated against, null if the request has none
+     */
+    private void commit(IRI graphName, Long expected, GroupCommit.Write write) {
+        writes.commit(expected == null ? write : GroupCommit.ifUnchanged(index, graphName, expected, write));
     }
 
 }
@@ -0,0 +1,249 @@
+package org.bold.http;
+
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write path of agents' requests: writes submitted concurrently are applied in a single transaction (group commit), on
+ * a dedicated connection, so that the cost of a commit is shared by all writes of the group. A group is formed from the
+ * writes submitted while the previous group was being committed and those submitted within a short window after the
+ * first one, up to a maximum size.
+ *
+ * Each request still waits for its own write to be committed. A write may be rejected (see {@link Rejected}) without
+ * affecting the rest of its group. If a write of a group fails otherwise, the others are committed again one by one,
+ * so that a faulty request does not fail other requests.
+ */
+public class GroupCommit implements AutoCloseable {
+
+    /**
+     * Changes of a request, applied within the transaction of a group (after changes of previous requests).
+     */
+    public interface Write {
+
+        void apply(RepositoryConnection connection);
+
+    }
+
+    /**
+     * Thrown by a write before it changes anything, to reject that write only (e.g. if its preconditions no longer
+     * hold).
+     */
+    public static class Rejected extends RepositoryException {
+
+        public Rejected(String message) {
+            super(message);
+        }
+
+    }
+
+    private static class Pending {
+
+        private final Write write;
+
+        private final CompletableFuture<Void> committed = new CompletableFuture<>();
+
+        private Pending(Write write) {
+            this.write = write;
+        }
+
+    }
+
+    private static final Pending STOP = new Pending(null);
+
+    private final Logger log = LoggerFactory.getLogger(GroupCommit.class);
+
+    private final RepositoryConnection connection;
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+
+    private final Thread committer;
+
+    private volatile long window = 1;
+
+    private volatile int maxSize = 64;
+
+    private volatile boolean closed = false;
+
+    private volatile Runnable rollbackListener = null;
+
+    /**
+     * @param connection connection to the simulation store, used by the committer thread only
+     */
+    public GroupCommit(RepositoryConnection connection) {
+        this.connection = connection;
+
+        committer = new Thread(this::run, "bold-group-commit");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * @param listener called (in the committer thread) when a transaction is rolled back, e.g. for listeners of the
+     *                 connection to discard the changes they were notified
+     */
+    public GroupCommit setRollbackListener(Runnable listener) {
+        this.rollbackListener = listener;
+        return this;
+    }
+
+    /**
+     * @param window time to wait for other writes after the first write of a group (in ms), 0 to only group writes
+     *               submitted while the previous group was being committed
+     */
+    public GroupCommit setWindow(long window) {
+        this.window = window;
+        return this;
+    }
+
+    /**
+     * @param maxSize maximum number of writes committed together (1 to commit every write on its own)
+     */
+    public GroupCommit setMaxSize(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+        return this;
+    }
+
+    /**
+     * Submits a write and waits until it is committed.
+     *
+     * @throws RepositoryException if the write could not be applied (or the thread was interrupted)
+     */
+    public void commit(Write write) {
+        if (closed) throw new RepositoryException("Group commit closed");
+
+        Pending p = new Pending(write);
+        queue.add(p);
+
+        // note: the committer may have stopped (and failed queued writes) after the check above
+        if (closed && queue.remove(p)) throw new RepositoryException("Group commit closed");
+
+        try {
+            p.committed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new RepositoryException(e.getCause());
+        }
+    }
+
+    /**
+     * Guards a write against concurrent changes of a graph by other means than agents' writes (e.g. continuous updates),
+     * which do not take graph locks.
+     *
+     * @param version version of the graph the preconditions of the request were evaluated against
+     * @return a write rejected if the version of the graph changed in the meantime
+     */
+    public static Write ifUnchanged(GraphIndex index, Resource graphName, long version, Write write) {
+        return connection -> {
+            if (index.getVersion(graphName) != version) throw new Rejected("Graph changed since preconditions were evaluated");
+            write.apply(connection);
+        };
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        queue.add(STOP);
+
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        connection.close();
+    }
+
+    private void run() {
+        List<Pending> group = new ArrayList<>();
+
+        try {
+            while (true) {
+                group.add(queue.take());
+
+                long deadline = System.currentTimeMillis() + window;
+                while (group.size() < maxSize) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    Pending p = remaining > 0 ? queue.poll(remaining, TimeUnit.MILLISECONDS) : queue.poll();
+                    if (p == null) break;
+                    group.add(p);
+                }
+
+                boolean stop = group.remove(STOP);
+                if (!group.isEmpty()) commit(group);
+                group.clear();
+
+                if (stop) break;
+            }
+        } catch (InterruptedException e) {
+            log.error("Group commit interrupted, subsequent writes are rejected.", e);
+        }
+
+        closed = true; // note: set before draining, for no write to be left waiting
+
+        List<Pending> remaining = new ArrayList<>(group);
+        queue.drainTo(remaining);
+        for (Pending p : remaining) {
+            if (p != STOP) p.committed.completeExceptionally(new RepositoryException("Group commit closed"));
+        }
+    }
+
+    private void commit(List<Pending> group) {
+        try {
+            connection.begin();
+            for (Pending p : group) {
+                try {
+                    p.write.apply(connection);
+                } catch (Rejected e) {
+                    p.committed.completeExceptionally(e);
+                }
+            }
+            connection.commit();
+
+            for (Pending p : group) p.committed.complete(null); // note: no effect on rejected writes
+        } catch (RuntimeException e) {
+            rollback();
+
+            if (group.size() == 1) {
+                group.get(0).committed.completeExceptionally(e);
+            } else {
+                for (Pending p : group) {
+                    if (!p.committed.isDone()) commit(p);
+                }
+            }
+        }
+    }
+
+    private void commit(Pending p) {
+        try {
+            connection.begin();
+            p.write.apply(connection);
+            connection.commit();
+
+            p.committed.complete(null);
+        } catch (RuntimeException e) {
+            rollback();
+
+            p.committed.completeExceptionally(e);
+        }
+    }
+
+    private void rollback() {
+        if (connection.isActive()) connection.rollback();
+        if (rollbackListener != null) rollbackListener.run();
+    }
+
+}
@@ -1,6 +1,5 @@
 package org.bold.http;
 
-import org.bold.io.RDFValueFormats;
 import org.bold.sim.Vocabulary;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
@@ -9,21 +8,21 @@ import org.eclipse.rdf4j.model.Model;
 import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.vocabulary.LDP;
-import org.eclipse.rdf4j.model.vocabulary.RDF;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryResult;
 import org.eclipse.rdf4j.rio.*;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.net.URI;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.locks.Lock;
 import java.util.UUID;
-import java.util.stream.Collectors;
 
 /**
  * Basic implementation of the SPARQL Graph Store protocol, giving
@@ -37,15 +36,55 @@ public class LDPHandler extends AbstractHandler implements GraphHandler {
 
     public static final RDFFormat DEFAULT_RDF_FORMAT = RDFFormat.TURTLE;
 
+    public static final IRI LDP_PAGE = Vocabulary.VALUE_FACTORY.createIRI(LDP.NAMESPACE, "Page");
+
+    /**
+     * Query parameter of page URIs, whose value is the position of the last containment triple of the previous page.
+     */
+    public static final String PAGE_PARAMETER = "page";
+
     private final URI baseURI;
 
-    private final RepositoryConnection connection;
+    private final ConnectionPool connections;
+
+    private final GroupCommit writes;
+
+    private final GraphIndex index;
+
+    private final RepresentationCache cache;
+
+    private final BufferPool buffers = new BufferPool();
 
     private final Set<GraphListener> listeners = new HashSet<>();
 
-    public LDPHandler(URI base, RepositoryConnection con) {
+    private int pageSize = 0;
+
+    /**
+     * @param base base URI of named graphs
+     * @param pool connections to the simulation store, one being leased per read
+     * @param writes write path of requests, committing concurrent writes together
+     * @param index versions and metadata of named graphs (entity tags are derived from versions)
+     * @param cache cache of serialized graphs
+     */
+    public LDPHandler(URI base, ConnectionPool pool, GroupCommit writes, GraphIndex index, RepresentationCache cache) {
         baseURI = base;
-        connection = con;
+        connections = pool;
+        this.writes = writes;
+        this.index = index;
+        this.cache = cache;
+    }
+
+    /**
+     * Enables LDP Paging: containers with more containment triples than the page size are served by pages, the first
+     * one being served on the container's URI. The first page also includes other triples of the container. Pages link
+     * to the next page (Link header, rel="next"); containment triples are ordered by insertion, so that pages remain
+     * stable while agents add members to (or remove members from) the container.
+     *
+     * @param pageSize maximum number of containment triples per page (0 to disable paging)
+     */
+    public LDPHandler setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+        return this;
     }
 
     public void addGraphListener(GraphListener listener) {
@@ -60,9 +99,44 @@ public class LDPHandler extends AbstractHandler implements GraphHandler {
     public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
         IRI graphName = Vocabulary.VALUE_FACTORY.createIRI(baseURI.resolve(target).toString()); // direct addressing
 
-        boolean created = !exists(graphName);
+        // note: writes to a graph are serialized, so that preconditions still hold when changes are committed
+        List<Lock> locks;
+        if (baseRequest.getMethod().equals("GET")) {
+            locks = Collections.emptyList();
+        } else if (baseRequest.getMethod().equals("DELETE")) {
+            // note: containers of the graph are changed as well (containment triples removed)
+            Set<Resource> graphs = new HashSet<>(index.getContainers(graphName));
+            graphs.add(graphName);
+            locks = index.getLocks(graphs);
+        } else {
+            locks = Collections.singletonList(index.getLock(graphName));
+        }
+        for (Lock l : locks) l.lock();
 
-        IRI containerType = getContainerType(graphName);
+        AsyncWriter body = null;
+        try {
+            // note: only reads need a connection, writes are committed by the group commit
+            RepositoryConnection connection = locks.isEmpty() ? connections.lease() : null;
+            try {
+                body = handle(graphName, baseRequest, request, response, connection);
+            } finally {
+                if (connection != null) connections.release(connection);
+            }
+        } finally {
+            for (Lock l : locks) l.unlock();
+        }
+
+        // note: the body is written once the connection is released, so that slow clients do not hold it
+        if (body != null) body.write(request, response);
+    }
+
+    /**
+     * @return the body of the response, to be written asynchronously (null if the response has no body)
+     */
+    private AsyncWriter handle(IRI graphName, Request baseRequest, HttpServletRequest request, HttpServletResponse response, RepositoryConnection connection) throws IOException {
+        boolean created = !index.exists(graphName);
+
+        IRI containerType = index.getContainerType(graphName);
                         
         response.setHeader("Access-Control-Allow-Origin", "*");
         if(containerType != null) {
@@ -71,42 +145,85 @@ public class LDPHandler extends AbstractHandler implements GraphHandler {
 
         // TODO use a ServletFilter instead, for processing Accept/Content-Type
 
-        /*
         String acceptString = request.getHeader("Accept");
-        RDFFormat accept = getFormatForMediaType(acceptString);
+        RDFFormat accept = ContentNegotiation.getWriterFormat(acceptString, DEFAULT_RDF_FORMAT, false);
 
-        if (accept == null) {
+        if (accept == null && baseRequest.getMethod().equals("GET")) {
             response.sendError(HttpServletResponse.SC_NOT_ACCEPTABLE);
             baseRequest.setHandled(true);
-            return;
+            return null;
         }
-        */
 
         String contentTypeString = request.getHeader("Content-Type");
-        RDFFormat contentType = getFormatForMediaType(contentTypeString);
+        RDFFormat contentType = ContentNegotiation.getParserFormat(contentTypeString, DEFAULT_RDF_FORMAT);
 
         if (contentType == null) {
             response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
             baseRequest.setHandled(true);
-            return;
+            return null;
         }
 
         long before, after;
+        AsyncWriter body = null;
+
+        if (!baseRequest.getMethod().equals("GET") && !ETags.preconditionsHold(request.getHeader("If-Match"), request.getHeader("If-None-Match"), index.getVersion(graphName), !created)) {
+            response.sendError(HttpServletResponse.SC_PRECONDITION_FAILED);
+            baseRequest.setHandled(true);
+            return null;
+        }
+
+        // note: the graph may still be changed by continuous updates (which take no lock) until the write is applied
+        Long expected = request.getHeader("If-Match") != null || request.getHeader("If-None-Match") != null ? index.getVersion(graphName) : null;
 
         try {
             switch (baseRequest.getMethod()) {
                 case "GET":
-                    if (!created) {
-                        //response.setHeader("Content-Type", accept.getDefaultMIMEType());
-                        response.setHeader("Content-Type", "text/turtle");
-
-                        RDFWriter writer = Rio.createWriter(RDFFormat.TURTLE, response.getOutputStream());
+                    String page = request.getParameter(PAGE_PARAMETER);
+                    boolean paged = containerType != null && pageSize > 0 && (page != null || index.getContainmentCount(graphName) > pageSize);
+
+                    long cursor = 0;
+                    if (paged && page != null) {
+                        try {
+                            cursor = Long.parseLong(page);
+                        } catch (NumberFormatException e) {
+                            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                            break;
+                        }
+                    }
 
+                    if (!created) {
                         before = System.currentTimeMillis();
-                        connection.exportStatements(null, null, null, true, writer, graphName);
-                        after = System.currentTimeMillis();
+                        long version = index.getVersion(graphName);
+                        String etag = paged ? ETags.of(version, cursor, accept) : ETags.of(version, accept);
+
+                        response.setHeader("ETag", etag);
+                        response.setHeader("Vary", "Accept");
+
+                        if (ETags.matches(request.getHeader("If-None-Match"), etag)) {
+                            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                        } else if (paged) {
+                            body = writePage(graphName, cursor, accept, response, connection);
+                        } else {
+                            byte[] content = cache.get(graphName, accept, version);
+                            if (content != null) {
+                                body = new AsyncWriter(content, content.length, null);
+                            } else {
+                                BufferPool.Buffer buffer = buffers.acquire();
+                                RDFWriter writer = Rio.createWriter(accept, buffer);
+                                connection.exportStatements(null, null, null, true, writer, graphName);
+
+                                // note: not cached if the graph changed during export
+                                if (index.getVersion(graphName) == version && cache.fits(buffer.size())) {
+                                    cache.put(graphName, accept, version, buffer.toByteArray());
+                                }
+
+                                body = new AsyncWriter(buffer.array(), buffer.size(), () -> buffers.release(buffer));
+                            }
 
-                        response.setStatus(HttpServletResponse.SC_OK);
+                            response.setHeader("Content-Type", accept.getDefaultMIMEType());
+                            response.setStatus(HttpServletResponse.SC_OK);
+                        }
+                        after = System.currentTimeMillis();
 
                         for (GraphListener l : listeners) {
                             l.graphRetrieved(graphName, after - before);
@@ -119,8 +236,7 @@ public class LDPHandler extends AbstractHandler implements GraphHandler {
                 case "PUT":
                     Model model = Rio.parse(request.getInputStream(), baseRequest.getRequestURI(), contentType);
                     if(containerType != null) {
-                        Set<Statement> containsSet = new HashSet<>();
-                        connection.getStatements(null, LDP.CONTAINS, null, graphName).forEach(containsSet::add);
+                        Set<Statement> containsSet = index.getContainments(graphName);
 
                         //Check if containment triples are untouched
                         boolean conflict = false;
@@ -137,15 +253,12 @@ public class LDPHandler extends AbstractHandler implements GraphHandler {
                             break;
                         }
                     }
-                    // TODO test transaction isolation (and rollback if necessary)
                     before = System.currentTimeMillis();
-                    connection.begin();
-                    connection.clear(graphName);
-                    connection.add(model, graphName);
-                    connection.commit();
+                    commit(graphName, expected, con -> GraphDiff.of(con, model, graphName).apply(con)); // only changed statements
                     after = System.currentTimeMillis();
 
                     response.setStatus(created ? HttpServletResponse.SC_CREATED : HttpServletResponse.SC_NO_CONTENT);
+                    response.setHeader("ETag", ETags.of(index.getVersion(graphName), contentType));
 
                     for (GraphListener l : listeners) {
                         l.graphReplaced(graphName, after - before);
@@ -157,18 +270,12 @@ public class LDPHandler extends AbstractHandler implements GraphHandler {
                         IRI containedResource = Vocabulary.VALUE_FACTORY.createIRI(graphName.stringValue() + "/", UUID.randomUUID().toString());
 
                         before = System.currentTimeMillis();
-                        connection.begin();
-                        connection.add(request.getInputStream(), containedResource.stringValue(), contentType, containedResource);
-                        connection.commit();
-                        after = System.currentTimeMillis();
-                        for (GraphListener l : listeners) {
-                            l.graphExtended(graphName, after - before);
-                        }
-
-                        before = System.currentTimeMillis();
-                        connection.begin();
-                        connection.add(graphName, LDP.CONTAINS, containedResource, graphName);
-                        connection.commit();
+                        Model member = Rio.parse(request.getInputStream(), containedResource.stringValue(), contentType);
+                        commit(graphName, expected, con -> {
+                            // note: member and containment triple are committed together
+                            con.add(member, containedResource);
+                            con.add(graphName, LDP.CONTAINS, containedResource, graphName);
+                        });
                         after = System.currentTimeMillis();
                         for (GraphListener l : listeners) {
                             l.graphExtended(graphName, after - before);
@@ -178,9 +285,8 @@ public class LDPHandler extends AbstractHandler implements GraphHandler {
                         response.setHeader("Location", containedResource.stringValue());
                     } else {
                         before = System.currentTimeMillis();
-                        connection.begin();
-                        connection.add(request.getInputStream(), baseRequest.getRequestURI(), contentType, graphName);
-                        connection.commit();
+                        Model addition = Rio.parse(request.getInputStream(), baseRequest.getRequestURI(), contentType);
+                        commit(graphName, expected, con -> con.add(addition, graphName));
                         after = System.currentTimeMillis();
 
                         response.setStatus(created ? HttpServletResponse.SC_CREATED : HttpServletResponse.SC_NO_CONTENT);
@@ -193,23 +299,12 @@ public class LDPHandler extends AbstractHandler implements GraphHandler {
 
                 case "DELETE":
                     if (!created) {
-                        //Collect containment triples for every context
-                        Map<Resource,List<Statement>> containers = connection.getStatements(null, LDP.CONTAINS, graphName).stream().collect(Collectors.groupingBy(Statement::getContext));
-                        for(Resource container : containers.keySet()) {
-                            before = System.currentTimeMillis();
-                            connection.begin();
-                            connection.remove(containers.get(container));
-                            connection.commit();
-                            after = System.currentTimeMillis();
-                            for (GraphListener l : listeners) {
-                                l.graphReplaced(graphName, after - before);
-                            }
-                        }
-
                         before = System.currentTimeMillis();
-                        connection.begin();
-                        connection.clear(graphName);
-                        connection.commit();
+                        commit(graphName, expected, con -> {
+                            // note: containment triples (in every container) are removed with the graph
+                            con.remove((Resource) null, LDP.CONTAINS, graphName);
+                            con.clear(graphName);
+                        });
                         after = System.currentTimeMillis();
 
                         response.setStatus(HttpServletResponse.SC_NO_CONTENT);
@@ -228,32 +323,69 @@ public class LDPHandler extends AbstractHandler implements GraphHandler {
             }
         } catch (RDFParseException e) {
             response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        } catch (GroupCommit.Rejected e) {
+            response.sendError(HttpServletResponse.SC_PRECONDITION_FAILED);
         } // other exceptions caught by jetty and 500 Internal Server Error returned
 
         baseRequest.setHandled(true);
-    }
 
-    private boolean exists(IRI graphName) {
-        return connection.hasStatement(null, null, null, false, graphName);
+        return body;
     }
 
-    private IRI getContainerType(IRI graphName) {
-        return (IRI) connection.getStatements(graphName, RDF.TYPE, null, false, graphName).stream().map(
-            s -> s.getObject()
-        ).filter(
-            o -> o.equals(LDP.BASIC_CONTAINER) || o.equals(LDP.DIRECT_CONTAINER) || o.equals(LDP.INDIRECT_CONTAINER) | o.equals(LDP_ORDERED_CONTAINER)
-        ).findAny().orElse(null);
-    }
+    /**
+     * @param cursor position of the last containment triple of the previous page (0 for the first page)
+     */
+    private AsyncWriter writePage(IRI graphName, long cursor, RDFFormat format, HttpServletResponse response, RepositoryConnection connection) {
+        // note: one more containment triple is fetched to know whether a next page exists
+        SortedMap<Long, Statement> members = index.getContainments(graphName, cursor, pageSize + 1);
+        boolean last = members.size() <= pageSize;
+        if (!last) members = members.headMap(members.lastKey());
+
+        BufferPool.Buffer buffer = buffers.acquire();
+        RDFWriter writer = Rio.createWriter(format, buffer);
+        writer.startRDF();
+
+        if (cursor == 0) {
+            Set<Statement> description = index.getDescription(graphName);
+
+            if (description == null) {
+                // note: statements are read from the store once, then kept up to date by the index
+                long version = index.getVersion(graphName);
+                description = new HashSet<>();
+                try (RepositoryResult<Statement> statements = connection.getStatements(null, null, null, true, graphName)) {
+                    for (Statement st : statements) {
+                        if (!st.getPredicate().equals(LDP.CONTAINS)) description.add(st);
+                    }
+                }
+                index.setDescription(graphName, version, description);
+            }
 
-    private RDFFormat getFormatForMediaType(String mediaType) {
-        if (mediaType == null || mediaType.equals("*/*")) return DEFAULT_RDF_FORMAT;
+            for (Statement st : description) writer.handleStatement(st);
+        }
+
+        for (Statement st : members.values()) writer.handleStatement(st);
+
+        writer.endRDF();
 
-        // TODO parse conneg header if more complex value
+        response.addHeader("Link", "<" + LDP_PAGE.stringValue() + ">; rel=\"type\"");
+        response.addHeader("Link", "<" + graphName.stringValue() + ">; rel=\"first\"");
+        if (!last) {
+            response.addHeader("Link", "<" + graphName.stringValue() + "?" + PAGE_PARAMETER + "=" + members.lastKey() + ">; rel=\"next\"");
+        }
+
+        response.setHeader("Content-Type", format.getDefaultMIMEType());
+        response.setStatus(HttpServletResponse.SC_OK);
 
-        Optional<RDFFormat> opt = Rio.getParserFormatForMIMEType(mediaType);
-        if (opt.isPresent()) return opt.get();
+        return new AsyncWriter(buffer.array(), buffer.size(), () -> buffers.release(buffer));
+    }
 
-        return RDFValueFormats.getFormatForMediaType(mediaType);
+    /**
+     * Commits a write, rejected if the request has preconditions and the graph changed since they were evaluated.
+     *
+     * @param expected version of the graph preconditions were evaluated against, null if the request has none
+     */
+    private void commit(IRI graphName, Long expected, GroupCommit.Write write) {
+        writes.commit(expected == null ? write : GroupCommit.ifUnchanged(index, graphName, expected, write));
     }
 
 }
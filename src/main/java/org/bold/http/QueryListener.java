@@ -0,0 +1,12 @@
+package org.bold.http;
+
+public interface QueryListener {
+
+    /**
+     * @param resultCount number of results (solutions or statements) sent to the client
+     */
+    void queryEvaluated(int resultCount, Long opTime);
+
+    void queryTimedOut(Long opTime);
+
+}
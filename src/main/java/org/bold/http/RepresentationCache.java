@@ -0,0 +1,107 @@
+package org.bold.http;
+
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.rio.RDFFormat;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Serialized representations of named graphs, for a given format and version of the graph (see {@link GraphIndex}).
+ * Only the latest cached version of a representation is kept; the least recently used representations are evicted
+ * once the total size of the cache exceeds its capacity.
+ */
+public class RepresentationCache {
+
+    private static class Key {
+
+        private final Resource graphName;
+
+        private final RDFFormat format;
+
+        Key(Resource graphName, RDFFormat format) {
+            this.graphName = graphName;
+            this.format = format;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+
+            Key other = (Key) o;
+            return graphName.equals(other.graphName) && format.equals(other.format);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(graphName, format);
+        }
+
+    }
+
+    private static class Entry {
+
+        private final long version;
+
+        private final byte[] content;
+
+        Entry(long version, byte[] content) {
+            this.version = version;
+            this.content = content;
+        }
+
+    }
+
+    private final Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // access order
+
+    private final long capacity;
+
+    private long size = 0;
+
+    /**
+     * @param capacity maximum total size of cached representations (in bytes), 0 to disable caching
+     */
+    public RepresentationCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the cached representation of the given version of the graph, null if none
+     */
+    public synchronized byte[] get(Resource graphName, RDFFormat format, long version) {
+        Entry e = entries.get(new Key(graphName, format));
+
+        if (e == null || e.version != version) return null;
+
+        return e.content;
+    }
+
+    /**
+     * @return true if a representation of the given size (in bytes) can be cached
+     */
+    public boolean fits(int length) {
+        return length <= capacity;
+    }
+
+    public synchronized void put(Resource graphName, RDFFormat format, long version, byte[] content) {
+        if (!fits(content.length)) return;
+
+        Key key = new Key(graphName, format);
+
+        Entry previous = entries.get(key);
+        if (previous != null && previous.version > version) return; // a later version was cached concurrently
+
+        entries.put(key, new Entry(version, content));
+        if (previous != null) size -= previous.content.length;
+        size += content.length;
+
+        Iterator<Entry> it = entries.values().iterator();
+        while (size > capacity && it.hasNext()) {
+            size -= it.next().content.length;
+            it.remove();
+        }
+    }
+
+}
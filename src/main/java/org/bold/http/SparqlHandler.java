@@ -0,0 +1,206 @@
+package org.bold.http;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.query.BooleanQuery;
+import org.eclipse.rdf4j.query.GraphQuery;
+import org.eclipse.rdf4j.query.GraphQueryResult;
+import org.eclipse.rdf4j.query.MalformedQueryException;
+import org.eclipse.rdf4j.query.Query;
+import org.eclipse.rdf4j.query.QueryInterruptedException;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQuery;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.query.resultio.BooleanQueryResultFormat;
+import org.eclipse.rdf4j.query.resultio.BooleanQueryResultWriterRegistry;
+import org.eclipse.rdf4j.query.resultio.QueryResultFormat;
+import org.eclipse.rdf4j.query.resultio.QueryResultIO;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultFormat;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultWriter;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultWriterRegistry;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFWriter;
+import org.eclipse.rdf4j.rio.Rio;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Read-only SPARQL 1.1 Protocol endpoint over the simulation store: queries are given in the 'query' parameter (GET or
+ * form-encoded POST) or as an application/sparql-query payload. Updates are rejected.
+ *
+ * Evaluation is aborted after a timeout and results are truncated to a maximum number of solutions (or statements).
+ * Results are serialized as they are computed.
+ */
+public class SparqlHandler extends AbstractHandler {
+
+    public static final String QUERY_MEDIA_TYPE = "application/sparql-query";
+
+    private final String baseURI;
+
+    private final ConnectionPool connections;
+
+    private final int timeout;
+
+    private final int maxResults;
+
+    private final Set<QueryListener> listeners = new HashSet<>();
+
+    /**
+     * @param base base URI of queries
+     * @param pool connections to the simulation store, one being leased per query
+     * @param timeout maximum evaluation time of a query (in s), 0 for no limit
+     * @param maxResults maximum number of results sent to the client
+     */
+    public SparqlHandler(String base, ConnectionPool pool, int timeout, int maxResults) {
+        baseURI = base;
+        connections = pool;
+        this.timeout = timeout;
+        this.maxResults = maxResults;
+    }
+
+    public void addQueryListener(QueryListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeQueryListener(QueryListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        baseRequest.setHandled(true);
+
+        String queryString;
+        switch (baseRequest.getMethod()) {
+            case "GET":
+                queryString = request.getParameter("query");
+                break;
+
+            case "POST":
+                String contentType = request.getContentType();
+                if (contentType != null && contentType.startsWith(QUERY_MEDIA_TYPE)) {
+                    if (request.getCharacterEncoding() == null) request.setCharacterEncoding("UTF-8");
+                    queryString = request.getReader().lines().collect(Collectors.joining("\n"));
+                } else {
+                    queryString = request.getParameter("query");
+                }
+                break;
+
+            default:
+                response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+                return;
+        }
+
+        if (queryString == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "No query given");
+            return;
+        }
+
+        String accept = request.getHeader("Accept");
+
+        RepositoryConnection connection = connections.lease();
+        long before = System.currentTimeMillis();
+        try {
+            Query query = connection.prepareQuery(QueryLanguage.SPARQL, queryString, baseURI);
+            query.setMaxExecutionTime(timeout);
+
+            int count;
+            if (query instanceof TupleQuery) {
+                QueryResultFormat format = ContentNegotiation.getFormat(accept, TupleQueryResultWriterRegistry.getInstance().getKeys(), TupleQueryResultFormat.JSON);
+                if (format == null) {
+                    response.sendError(HttpServletResponse.SC_NOT_ACCEPTABLE);
+                    return;
+                }
+
+                setContentType(response, format.getDefaultMIMEType());
+                count = writeSolutions((TupleQuery) query, QueryResultIO.createTupleWriter(format, response.getOutputStream()));
+            } else if (query instanceof GraphQuery) {
+                RDFFormat format = ContentNegotiation.getWriterFormat(accept, RDFFormat.TURTLE, false);
+                if (format == null) {
+                    response.sendError(HttpServletResponse.SC_NOT_ACCEPTABLE);
+                    return;
+                }
+
+                setContentType(response, format.getDefaultMIMEType());
+                count = writeStatements((GraphQuery) query, Rio.createWriter(format, response.getOutputStream()));
+            } else {
+                QueryResultFormat format = ContentNegotiation.getFormat(accept, BooleanQueryResultWriterRegistry.getInstance().getKeys(), BooleanQueryResultFormat.JSON);
+                if (format == null) {
+                    response.sendError(HttpServletResponse.SC_NOT_ACCEPTABLE);
+                    return;
+                }
+
+                boolean result = ((BooleanQuery) query).evaluate();
+
+                setContentType(response, format.getDefaultMIMEType());
+                QueryResultIO.writeBoolean(result, format, response.getOutputStream());
+                count = 1;
+            }
+
+            long after = System.currentTimeMillis();
+            for (QueryListener l : listeners) {
+                l.queryEvaluated(count, after - before);
+            }
+        } catch (MalformedQueryException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        } catch (QueryInterruptedException e) {
+            long after = System.currentTimeMillis();
+            for (QueryListener l : listeners) {
+                l.queryTimedOut(after - before);
+            }
+
+            // note: if results were already sent, the response is left incomplete
+            if (!response.isCommitted()) {
+                response.reset();
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Query evaluation timed out");
+            }
+        } finally {
+            connections.release(connection);
+        }
+    }
+
+    private int writeSolutions(TupleQuery query, TupleQueryResultWriter writer) {
+        int count = 0;
+
+        try (TupleQueryResult result = query.evaluate()) {
+            writer.startQueryResult(result.getBindingNames());
+            while (count < maxResults && result.hasNext()) {
+                writer.handleSolution(result.next());
+                count++;
+            }
+            writer.endQueryResult();
+        }
+
+        return count;
+    }
+
+    private int writeStatements(GraphQuery query, RDFWriter writer) {
+        int count = 0;
+
+        try (GraphQueryResult result = query.evaluate()) {
+            writer.startRDF();
+            while (count < maxResults && result.hasNext()) {
+                Statement st = result.next();
+                writer.handleStatement(st);
+                count++;
+            }
+            writer.endRDF();
+        }
+
+        return count;
+    }
+
+    private static void setContentType(HttpServletResponse response, String mediaType) {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(mediaType);
+        response.setHeader("Vary", "Accept");
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.bold.http;
+
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.sail.SailChangedEvent;
+import org.eclipse.rdf4j.sail.SailChangedListener;
+import org.eclipse.rdf4j.sail.SailConnectionListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Connection listener forwarding changes to other listeners once they are committed only, so that the latter never
+ * see changes that are rolled back (e.g. the update history, which replays them). As in {@link GraphIndex}, changes
+ * are kept per thread until the thread commits (the store notifies commits synchronously, in the committing thread)
+ * and changes that are rolled back must be discarded (see {@link #discard()}).
+ */
+public class TransactionalListener implements SailConnectionListener, SailChangedListener {
+
+    /**
+     * Statement added (true) or removed (false), in the order changes were notified.
+     */
+    private static class Change {
+
+        private final Statement statement;
+
+        private final boolean added;
+
+        private Change(Statement statement, boolean added) {
+            this.statement = statement;
+            this.added = added;
+        }
+
+    }
+
+    private final List<SailConnectionListener> listeners;
+
+    private final ThreadLocal<List<Change>> pending = ThreadLocal.withInitial(ArrayList::new);
+
+    public TransactionalListener(SailConnectionListener... listeners) {
+        this.listeners = Arrays.asList(listeners);
+    }
+
+    @Override
+    public void statementAdded(Statement st) {
+        pending.get().add(new Change(st, true));
+    }
+
+    @Override
+    public void statementRemoved(Statement st) {
+        pending.get().add(new Change(st, false));
+    }
+
+    @Override
+    public void sailChanged(SailChangedEvent event) {
+        List<Change> changes = pending.get();
+
+        for (Change c : changes) {
+            for (SailConnectionListener l : listeners) {
+                if (c.added) l.statementAdded(c.statement);
+                else l.statementRemoved(c.statement);
+            }
+        }
+
+        changes.clear();
+    }
+
+    /**
+     * Discards changes notified by the current thread since its last commit, to be called once they are rolled back.
+     */
+    public void discard() {
+        pending.get().clear();
+    }
+
+}
@@ -0,0 +1,130 @@
+package org.bold.sim;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Admission of agent requests during a simulation run, protecting continuous updates from request floods: each client
+ * (agent) gets a token bucket (sustained request rate and burst) and the number of requests processed concurrently is
+ * capped.
+ *
+ * Limits are tightened when updates take a large share of the timeslot (as notified at every tick), down to a tenth of
+ * their configured value when updates take the whole timeslot. Buckets of idle clients are dropped at every tick, so
+ * that the number of buckets is bounded by the number of clients active since the last tick.
+ *
+ * Client identifiers are trusted: a client that changes its identifier gets a new bucket.
+ */
+class AdmissionControl implements History {
+
+    enum Decision { ADMITTED, THROTTLED, OVERLOADED }
+
+    private static final double LOAD_THRESHOLD = 0.5;
+
+    private static final double MIN_FACTOR = 0.1;
+
+    private class Bucket {
+
+        private double tokens = burst;
+
+        private long lastRefill = System.nanoTime();
+
+        synchronized boolean take(double currentRate) {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastRefill) / 1e9 * currentRate);
+            lastRefill = now;
+
+            if (tokens < 1) return false;
+
+            tokens--;
+            return true;
+        }
+
+        /**
+         * @return true if the bucket would be full by now (dropping it then is the same as keeping it)
+         */
+        synchronized boolean isIdle(double currentRate) {
+            return tokens + (System.nanoTime() - lastRefill) / 1e9 * currentRate >= burst;
+        }
+
+    }
+
+    private final double rate;
+
+    private final double burst;
+
+    private final int maxInFlight;
+
+    private final LongSupplier timeSlotDuration;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile double factor = 1;
+
+    /**
+     * @param rate sustained number of requests per second per client (0 for no limit)
+     * @param burst number of requests a client may send at once
+     * @param maxInFlight maximum number of requests processed concurrently (0 for no limit)
+     * @param timeSlotDuration duration of a timeslot (in ms)
+     */
+    AdmissionControl(double rate, int burst, int maxInFlight, LongSupplier timeSlotDuration) {
+        this.rate = rate;
+        this.burst = Math.max(1, burst);
+        this.maxInFlight = maxInFlight;
+        this.timeSlotDuration = timeSlotDuration;
+    }
+
+    /**
+     * @param client identifier of the client (e.g. its address)
+     * @return the decision for the request; if admitted, {@link #release()} must be called once it is processed
+     */
+    Decision admit(String client) {
+        double f = factor;
+
+        if (rate > 0 && !buckets.computeIfAbsent(client, c -> new Bucket()).take(rate * f)) {
+            return Decision.THROTTLED;
+        }
+
+        if (maxInFlight > 0 && inFlight.incrementAndGet() > Math.max(1, (int) (maxInFlight * f))) {
+            inFlight.decrementAndGet();
+            return Decision.OVERLOADED;
+        }
+
+        return Decision.ADMITTED;
+    }
+
+    /**
+     * @return the number of clients for which a bucket is kept
+     */
+    int getClientCount() {
+        return buckets.size();
+    }
+
+    void release() {
+        if (maxInFlight > 0) inFlight.decrementAndGet();
+    }
+
+    /**
+     * @return the number of seconds after which a rejected request may be sent again
+     */
+    long getRetryAfter(Decision decision) {
+        if (decision == Decision.THROTTLED) return Math.max(1, (long) Math.ceil(1 / (rate * factor)));
+
+        return Math.max(1, (long) Math.ceil(timeSlotDuration.getAsLong() / 1000.0)); // next tick
+    }
+
+    @Override
+    public void timeIncremented(Long updateTime) {
+        double load = (double) updateTime / timeSlotDuration.getAsLong();
+
+        if (load <= LOAD_THRESHOLD) factor = 1;
+        else factor = Math.max(MIN_FACTOR, 1 - (load - LOAD_THRESHOLD) / (1 - LOAD_THRESHOLD) * (1 - MIN_FACTOR));
+
+        double currentRate = rate * factor;
+        buckets.values().removeIf(b -> b.isIdle(currentRate));
+    }
+
+}
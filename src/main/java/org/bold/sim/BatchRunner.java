@@ -0,0 +1,101 @@
+package org.bold.sim;
+
+import org.bold.http.TransactionalListener;
+import org.bold.io.FileUtils;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.repository.sail.SailRepositoryConnection;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.sail.NotifyingSail;
+import org.eclipse.rdf4j.sail.NotifyingSailConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Headless alternative to {@link SimulationHandler}: no HTTP server is started and simulation runs are executed
+ * back-to-back, as fast as possible (see {@link SimulationEngine#runHeadless()}). Useful to measure update/replay
+ * throughput or to regenerate results without waiting one timeslot per iteration.
+ */
+public class BatchRunner {
+
+    private final Logger log = LoggerFactory.getLogger(BatchRunner.class);
+
+    private final SailRepository repo;
+
+    private final SailRepositoryConnection connection;
+
+    private final SimulationEngine engine;
+
+    private final String baseURI;
+
+    /**
+     * @param base base URI of the simulation (should be the same as the server's, for queries to give the same results)
+     * @param protocol see {@link SimulationHandler}
+     * @param resultFile file to which query results are appended
+     */
+    public BatchRunner(String base, String protocol, String resultFile) {
+        baseURI = base;
+
+        repo = SimulationHandler.createRepository(protocol);
+
+        UpdateHistory history = new UpdateHistory();
+        // note: as in server mode, the history is notified of committed changes only
+        TransactionalListener committed = new TransactionalListener(history);
+        ((NotifyingSail) repo.getSail()).addSailChangedListener(committed);
+
+        connection = openConnection(committed);
+
+        InteractionHistory interactions = new InteractionHistory();
+
+        engine = new SimulationEngine(baseURI, connection, history, interactions, resultFile);
+        engine.setConnectionFactory(() -> openConnection(committed));
+        engine.setRollbackListener(committed::discard);
+    }
+
+    private SailRepositoryConnection openConnection(TransactionalListener committed) {
+        SailRepositoryConnection con = repo.getConnection();
+        ((NotifyingSailConnection) con.getSailConnection()).addConnectionListener(committed);
+
+        return con;
+    }
+
+    public SimulationEngine getSimulationEngine() {
+        return engine;
+    }
+
+    /**
+     * Executes one simulation run, as if the sim resource was sent by an agent (PUT /sim).
+     *
+     * @param simFilename RDF file describing the simulation (see data/sim.ttl)
+     * @param iterations number of iterations to run, overriding the value in the sim resource (if not null)
+     */
+    public void run(String simFilename, Integer iterations) throws IOException {
+        RDFFormat format = Rio.getParserFormatForFileName(simFilename).orElse(RDFFormat.TURTLE);
+        Model sim = Rio.parse(FileUtils.getFileOrResource(simFilename), baseURI, format);
+
+        IRI graphName = Vocabulary.VALUE_FACTORY.createIRI(baseURI + SimulationHandler.SIMULATION_RESOURCE_TARGET.substring(1));
+
+        if (iterations != null) {
+            sim.remove(null, Vocabulary.ITERATIONS, null);
+            sim.add(graphName, Vocabulary.ITERATIONS, Vocabulary.VALUE_FACTORY.createLiteral(iterations));
+        }
+
+        connection.add(sim, graphName);
+
+        long before = System.currentTimeMillis();
+        engine.runHeadless();
+        long after = System.currentTimeMillis();
+
+        log.info("Batch run done in {} ms.", after - before);
+    }
+
+    public void terminate() {
+        connection.close();
+        repo.shutDown();
+    }
+
+}
@@ -0,0 +1,263 @@
+package org.bold.sim;
+
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only log of the changes recorded in an {@link UpdateHistory}, written through memory-mapped files (segments of
+ * fixed size) so that the length of a simulation run is bounded by disk space rather than heap space. Closed update
+ * sequences are read back directly from the mapped segments.
+ *
+ * Each segment starts with a magic number, followed by records. A record is either a term definition (the dictionary
+ * identifier of an RDF term, see {@link TermDictionary}) or an update sequence (iteration number, number of changes
+ * and (op, s, p, o, g) tuples of term identifiers). Terms are always logged before the first sequence that refers to
+ * them. The type of a record is written last, so that a record being written when the process crashed is ignored
+ * on recovery (segments are zero-filled).
+ */
+class ChangeLog {
+
+    interface Handler {
+
+        void term(int id, Value v);
+
+        /**
+         * @param tuples view of the segment holding the tuples of the sequence
+         */
+        void sequence(int iteration, ByteBuffer tuples);
+
+    }
+
+    private static final String SEGMENT_PREFIX = "changes-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final int MAGIC = 0x424f4c44; // "BOLD"
+
+    private static final byte END = 0, TERM = 1, SEQUENCE = 2;
+
+    private static final byte IRI_TERM = 0, BNODE_TERM = 1, LITERAL_TERM = 2;
+
+    private final Logger log = LoggerFactory.getLogger(ChangeLog.class);
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private final List<File> files = new ArrayList<>();
+
+    private MappedByteBuffer current = null;
+
+    private long written = 0;
+
+    /**
+     * Creates a new log. If the directory holds segments of a previous run (e.g. after a crash), they are moved to a
+     * subdirectory, to be recovered later (see {@link #read(File, Handler)}).
+     *
+     * @param directory directory in which segments are written
+     * @param segmentSize size of a segment (in bytes)
+     */
+    ChangeLog(File directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create change log directory: " + directory);
+        }
+
+        File[] previous = listSegments(directory);
+        if (previous.length > 0) {
+            File backup = new File(directory, "crashed-" + System.currentTimeMillis());
+            backup.mkdir();
+            for (File f : previous) f.renameTo(new File(backup, f.getName()));
+
+            log.warn("Change log of a previous run found, moved to {}.", backup);
+        }
+    }
+
+    /**
+     * @return number of bytes written to the log since it was created or cleared
+     */
+    long size() {
+        return written;
+    }
+
+    void appendTerm(int id, Value v) throws IOException {
+        byte kind;
+        byte[] label = v.stringValue().getBytes(StandardCharsets.UTF_8);
+        byte[] datatype = new byte[0], lang = new byte[0];
+
+        if (v instanceof IRI) {
+            kind = IRI_TERM;
+        } else if (v instanceof BNode) {
+            kind = BNODE_TERM;
+        } else {
+            kind = LITERAL_TERM;
+            Literal l = (Literal) v;
+            datatype = l.getDatatype().stringValue().getBytes(StandardCharsets.UTF_8);
+            lang = l.getLanguage().orElse("").getBytes(StandardCharsets.UTF_8);
+        }
+
+        int length = 1 + 4 + 1 + (4 + label.length) + (kind == LITERAL_TERM ? 8 + datatype.length + lang.length : 0);
+        ByteBuffer buffer = reserve(length);
+        int start = buffer.position();
+
+        buffer.position(start + 1);
+        buffer.putInt(id);
+        buffer.put(kind);
+        putBytes(buffer, label);
+        if (kind == LITERAL_TERM) {
+            putBytes(buffer, datatype);
+            putBytes(buffer, lang);
+        }
+
+        buffer.put(start, TERM);
+        written += length;
+    }
+
+    /**
+     * @return a view of the segment holding the written tuples (only absolute reads are allowed)
+     */
+    ByteBuffer appendSequence(int iteration, int[] tuples) throws IOException {
+        int length = 1 + 4 + 4 + 4 * tuples.length;
+        ByteBuffer buffer = reserve(length);
+        int start = buffer.position();
+
+        buffer.position(start + 1);
+        buffer.putInt(iteration);
+        buffer.putInt(tuples.length / UpdateHistory.TUPLE_SIZE);
+        for (int t : tuples) buffer.putInt(t);
+
+        buffer.put(start, SEQUENCE);
+        written += length;
+
+        return slice(buffer, start + 9, 4 * tuples.length);
+    }
+
+    /**
+     * Deletes all segments.
+     */
+    void clear() {
+        // note: mapped buffers are released by garbage collection, files can be deleted before (except on Windows)
+        for (File f : files) {
+            if (!f.delete()) log.warn("Could not delete change log segment {}.", f);
+        }
+
+        files.clear();
+        current = null;
+        written = 0;
+    }
+
+    /**
+     * Reads all complete records of the segments found in a directory, in order.
+     */
+    static void read(File directory, Handler handler) throws IOException {
+        for (File f : listSegments(directory)) {
+            ByteBuffer buffer;
+            try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            }
+
+            if (buffer.remaining() < 4 || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a change log segment: " + f);
+            }
+
+            int pos = 4;
+            while (pos < buffer.limit() && buffer.get(pos) != END) {
+                byte type = buffer.get(pos);
+                buffer.position(pos + 1);
+
+                if (type == TERM) {
+                    int id = buffer.getInt();
+                    byte kind = buffer.get();
+                    String label = getString(buffer);
+
+                    Value v;
+                    if (kind == IRI_TERM) {
+                        v = Vocabulary.VALUE_FACTORY.createIRI(label);
+                    } else if (kind == BNODE_TERM) {
+                        v = Vocabulary.VALUE_FACTORY.createBNode(label);
+                    } else {
+                        IRI datatype = Vocabulary.VALUE_FACTORY.createIRI(getString(buffer));
+                        String lang = getString(buffer);
+                        v = lang.isEmpty()
+                                ? Vocabulary.VALUE_FACTORY.createLiteral(label, datatype)
+                                : Vocabulary.VALUE_FACTORY.createLiteral(label, lang);
+                    }
+
+                    handler.term(id, v);
+                } else if (type == SEQUENCE) {
+                    int iteration = buffer.getInt();
+                    int length = 4 * buffer.getInt() * UpdateHistory.TUPLE_SIZE;
+
+                    handler.sequence(iteration, slice(buffer, buffer.position(), length));
+                    buffer.position(buffer.position() + length);
+                } else {
+                    throw new IOException("Corrupted change log segment: " + f);
+                }
+
+                pos = buffer.position();
+            }
+        }
+    }
+
+    private ByteBuffer reserve(int length) throws IOException {
+        // note: one byte left for the end marker
+        if (current == null || current.remaining() < length + 1) {
+            File f = new File(directory, String.format("%s%06d%s", SEGMENT_PREFIX, files.size(), SEGMENT_SUFFIX));
+            int capacity = Math.max(segmentSize, 4 + length + 1);
+
+            try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                current = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+
+            current.putInt(MAGIC);
+            files.add(f);
+
+            log.info("Opened change log segment {}.", f);
+        }
+
+        return current;
+    }
+
+    private static File[] listSegments(File directory) {
+        File[] segments = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (segments == null) return new File[0];
+
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + length);
+        view.position(offset);
+        return view.slice();
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
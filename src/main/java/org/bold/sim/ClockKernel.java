@@ -0,0 +1,103 @@
+package org.bold.sim;
+
+import org.eclipse.rdf4j.common.iteration.Iterations;
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * Advances the simulation clock by one timeslot: increments sim:currentIteration and replaces sim:currentTime by a new
+ * instant (xsd:dateTime and date/time description), sim:timeslotDuration later. Only the iteration is incremented if
+ * the sim resource has no current time or timeslot duration.
+ *
+ * Statements are updated in the graph holding sim:currentIteration (graph sim, see sim-init.rq).
+ */
+public class ClockKernel implements UpdateKernel {
+
+    private final DatatypeFactory factory;
+
+    public ClockKernel() {
+        try {
+            factory = DatatypeFactory.newInstance();
+        } catch (DatatypeConfigurationException e) {
+            // note: without it, the clock would silently stop while iterations go on
+            throw new IllegalStateException("No XML datatype factory available for the simulation clock", e);
+        }
+    }
+
+    @Override
+    public void execute(RepositoryConnection connection) {
+        List<Statement> iterations = Iterations.asList(connection.getStatements(null, Vocabulary.CURRENT_ITERATION, null));
+
+        for (Statement st : iterations) {
+            Resource sim = st.getSubject();
+            Resource g = st.getContext();
+            BigInteger it = ((Literal) st.getObject()).integerValue();
+
+            connection.remove(sim, Vocabulary.CURRENT_ITERATION, st.getObject(), g);
+            connection.add(sim, Vocabulary.CURRENT_ITERATION, Vocabulary.VALUE_FACTORY.createLiteral(it.add(BigInteger.ONE)), g);
+
+            advanceTime(connection, sim, g);
+        }
+    }
+
+    private void advanceTime(RepositoryConnection con, Resource sim, Resource g) {
+        Value oldInstant = object(con, sim, Vocabulary.CURRENT_TIME);
+        Value duration = object(con, sim, Vocabulary.TIMESLOT_DURATION);
+
+        if (!(oldInstant instanceof Resource) || !(duration instanceof Literal)) return;
+
+        Value oldTime = object(con, (Resource) oldInstant, Vocabulary.IN_XSD_DATE_TIME_STAMP);
+        Value oldDesc = object(con, (Resource) oldInstant, Vocabulary.IN_DATE_TIME);
+
+        if (!(oldTime instanceof Literal) || !(oldDesc instanceof Resource)) return;
+
+        // same computation as sim:after (on a copy: the calendar may be the one held by the old literal)
+        XMLGregorianCalendar time = (XMLGregorianCalendar) ((Literal) oldTime).calendarValue().clone();
+        time.add(factory.newDuration(((Literal) duration).longValue()));
+
+        con.remove(sim, Vocabulary.CURRENT_TIME, oldInstant, g);
+        con.remove((Resource) oldInstant, null, null, g);
+        con.remove((Resource) oldDesc, null, null, g);
+
+        BNode instant = Vocabulary.VALUE_FACTORY.createBNode();
+        BNode desc = Vocabulary.VALUE_FACTORY.createBNode();
+
+        con.add(sim, Vocabulary.CURRENT_TIME, instant, g);
+        con.add(instant, Vocabulary.IN_XSD_DATE_TIME_STAMP, Vocabulary.VALUE_FACTORY.createLiteral(time), g);
+        con.add(instant, Vocabulary.IN_DATE_TIME, desc, g);
+
+        // same literals as SPARQL's year(), month(), day(), hours(), minutes(), seconds()
+        con.add(desc, Vocabulary.YEAR, integer(time.getYear()), g);
+        con.add(desc, Vocabulary.MONTH, integer(time.getMonth()), g);
+        con.add(desc, Vocabulary.DAY, integer(time.getDay()), g);
+        con.add(desc, Vocabulary.HOUR, integer(time.getHour()), g);
+        con.add(desc, Vocabulary.MINUTE, integer(time.getMinute()), g);
+
+        BigDecimal fraction = time.getFractionalSecond();
+        String seconds = fraction == null ? String.valueOf(time.getSecond()) : String.valueOf(fraction.doubleValue() + time.getSecond());
+        con.add(desc, Vocabulary.SECOND, Vocabulary.VALUE_FACTORY.createLiteral(seconds, XSD.DECIMAL), g);
+    }
+
+    private static Value object(RepositoryConnection con, Resource s, IRI p) {
+        List<Statement> statements = Iterations.asList(con.getStatements(s, p, null));
+        return statements.isEmpty() ? null : statements.get(0).getObject();
+    }
+
+    private static Literal integer(int i) {
+        return Vocabulary.VALUE_FACTORY.createLiteral(String.valueOf(i), XSD.INTEGER);
+    }
+
+}
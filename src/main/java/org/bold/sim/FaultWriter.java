@@ -0,0 +1,78 @@
+package org.bold.sim;
+
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.resultio.text.csv.SPARQLResultsCSVWriter;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Writes query results obtained during replay to the result file, one dataset per simulation run (Gnuplot convention:
+ * datasets are separated by two empty lines and start with a comment line).
+ */
+class FaultWriter {
+
+    private final String filename;
+
+    private Writer writer = null;
+
+    private SPARQLResultsCSVWriter csvWriter = null;
+
+    FaultWriter(String filename) {
+        this.filename = filename;
+    }
+
+    /**
+     * Starts a new dataset in the result file.
+     *
+     * @param queryNames names of the queries evaluated at each iteration
+     */
+    void open(Collection<String> queryNames) throws IOException {
+        writer = new FileWriter(filename, true);
+
+        // TODO put all formatting to separate classes
+        StringBuilder str = new StringBuilder();
+        for (String f : queryNames) {
+            str.append(String.format("\t\"%s\"", f));
+        }
+        writer.append(String.format("# \"iteration\"%s\n", str.toString()));
+
+        csvWriter = null;
+    }
+
+    /**
+     * Appends query results for one iteration.
+     *
+     * @param bindingNames names of the bindings of the first query result (used as CSV header)
+     * @param solutions solutions of all queries for the iteration
+     */
+    void write(List<String> bindingNames, List<BindingSet> solutions) {
+        if (bindingNames == null) return; // no query was evaluated
+
+        if (csvWriter == null) {
+            csvWriter = new SPARQLResultsCSVWriter(writer);
+            csvWriter.startQueryResult(bindingNames);
+        }
+
+        for (BindingSet bs : solutions) {
+            csvWriter.handleSolution(bs);
+        }
+    }
+
+    /**
+     * Ends the current dataset.
+     *
+     * @param footer comment line written after results
+     */
+    void close(String footer) throws IOException {
+        if (csvWriter != null) csvWriter.endQueryResult();
+
+        writer.append(footer);
+        writer.append("\n\n");
+        writer.close();
+    }
+
+}
@@ -0,0 +1,355 @@
+package org.bold.sim;
+
+import org.eclipse.rdf4j.common.iteration.Iterations;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.query.algebra.Compare;
+import org.eclipse.rdf4j.query.algebra.MathExpr;
+import org.eclipse.rdf4j.query.algebra.evaluation.ValueExprEvaluationException;
+import org.eclipse.rdf4j.query.algebra.evaluation.util.MathUtil;
+import org.eclipse.rdf4j.query.algebra.evaluation.util.QueryEvaluationUtil;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Illuminance model of the simulation, equivalent to query/update-illuminance.rq (executed in the same order):
+ *
+ *  1. outside illuminance follows the sun (square function from sunrise to sunset), weighted by cloud coverage
+ *  2. room illuminance follows outside illuminance, weighted by the room's orientation and occlusion factor
+ *  3. room illuminance is increased by every lighting system switched on that influences the room's sensor
+ *
+ * Arithmetic uses the same numeric promotion rules as SPARQL, so that values are identical to the query's.
+ */
+public class IlluminanceKernel implements UpdateKernel {
+
+    private static final String BRICK_NS = "http://buildsys.org/ontologies/Brick#";
+
+    private static final IRI OUTSIDE_LUMINANCE_SENSOR = Vocabulary.VALUE_FACTORY.createIRI(BRICK_NS, "Outside_Luminance_Sensor");
+
+    private static final IRI LUMINANCE_SENSOR = Vocabulary.VALUE_FACTORY.createIRI(BRICK_NS, "Luminance_Sensor");
+
+    private static final IRI LUMINANCE_COMMAND = Vocabulary.VALUE_FACTORY.createIRI(BRICK_NS, "Luminance_Command");
+
+    private static final IRI ROOM = Vocabulary.VALUE_FACTORY.createIRI(BRICK_NS, "Room");
+
+    private static final IRI IS_LOCATED_IN = Vocabulary.VALUE_FACTORY.createIRI("http://buildsys.org/ontologies/BrickFrame#", "isLocatedIn");
+
+    private static final IRI OBSERVES = Vocabulary.VALUE_FACTORY.createIRI("http://www.w3.org/ns/sosa/", "observes");
+
+    private static final IRI ACTS_ON_PROPERTY = Vocabulary.VALUE_FACTORY.createIRI("http://www.w3.org/ns/sosa/", "actsOnProperty");
+
+    private static final IRI NUMERIC_VALUE = Vocabulary.VALUE_FACTORY.createIRI("http://qudt.org/schema/qudt#", "numericValue");
+
+    private static final IRI IS_PRIMARY_TOPIC_OF = Vocabulary.VALUE_FACTORY.createIRI("http://xmlns.com/foaf/0.1/", "isPrimaryTopicOf");
+
+    private static final IRI SUNRISE_TIME = Vocabulary.VALUE_FACTORY.createIRI(Vocabulary.NS, "sunriseTime");
+
+    private static final IRI SUNSET_TIME = Vocabulary.VALUE_FACTORY.createIRI(Vocabulary.NS, "sunsetTime");
+
+    private static final IRI CLOUD_COVERAGE_STIMULUS = Vocabulary.VALUE_FACTORY.createIRI(Vocabulary.NS, "CloudCoverageStimulus");
+
+    private static final IRI START_COVERAGE = Vocabulary.VALUE_FACTORY.createIRI(Vocabulary.NS, "startCoverage");
+
+    private static final IRI END_COVERAGE = Vocabulary.VALUE_FACTORY.createIRI(Vocabulary.NS, "endCoverage");
+
+    private static final IRI ORIENTATION = Vocabulary.VALUE_FACTORY.createIRI(Vocabulary.NS, "orientation");
+
+    private static final IRI EAST = Vocabulary.VALUE_FACTORY.createIRI(Vocabulary.NS, "east");
+
+    private static final IRI OCCLUSION_FACTOR = Vocabulary.VALUE_FACTORY.createIRI(Vocabulary.NS, "occlusionFactor");
+
+    private static final IRI INFLUENCES = Vocabulary.VALUE_FACTORY.createIRI(Vocabulary.NS, "influences");
+
+    private static final Literal ON = Vocabulary.VALUE_FACTORY.createLiteral("on");
+
+    private static final Literal ZERO = Vocabulary.VALUE_FACTORY.createLiteral(BigInteger.valueOf(0));
+
+    private static final Literal ONE = Vocabulary.VALUE_FACTORY.createLiteral(BigInteger.valueOf(1));
+
+    private static final Literal TWO = Vocabulary.VALUE_FACTORY.createLiteral(BigInteger.valueOf(2));
+
+    private static final Literal LAMP_ILLUMINANCE = Vocabulary.VALUE_FACTORY.createLiteral(BigInteger.valueOf(100));
+
+    private static final Literal MAX_OUTSIDE_ILLUMINANCE = Vocabulary.VALUE_FACTORY.createLiteral(BigInteger.valueOf(40000));
+
+    private static final Literal MAX_ROOM_ILLUMINANCE = Vocabulary.VALUE_FACTORY.createLiteral(BigInteger.valueOf(5000));
+
+    /**
+     * Position of the sun: time elapsed since sunrise (in ms) and half the duration of the day (in ms).
+     */
+    private static class Sun {
+
+        private final Literal time;
+
+        private final Literal zenith;
+
+        private Sun(Literal time, Literal zenith) {
+            this.time = time;
+            this.zenith = zenith;
+        }
+
+    }
+
+    /**
+     * New illuminance value to write (in place of the old one).
+     */
+    private static class Change {
+
+        private final Resource illuminance;
+
+        private final Value oldValue;
+
+        private final Literal value;
+
+        private final Resource graph;
+
+        private Change(Resource illuminance, Value oldValue, Literal value, Resource graph) {
+            this.illuminance = illuminance;
+            this.oldValue = oldValue;
+            this.value = value;
+            this.graph = graph;
+        }
+
+    }
+
+    @Override
+    public void execute(RepositoryConnection connection) {
+        List<Sun> suns = suns(connection);
+
+        apply(connection, updateOutsideIlluminance(connection, suns));
+        apply(connection, updateRoomIlluminance(connection, suns));
+        apply(connection, updateLighting(connection));
+    }
+
+    private List<Change> updateOutsideIlluminance(RepositoryConnection con, List<Sun> suns) {
+        List<Change> changes = new ArrayList<>();
+
+        for (Sun sun : suns) {
+            for (Resource sensor : subjects(con, RDF.TYPE, OUTSIDE_LUMINANCE_SENSOR)) {
+                for (Value illuminance : objects(con, sensor, OBSERVES)) {
+                    for (Resource stimulus : subjects(con, RDF.TYPE, CLOUD_COVERAGE_STIMULUS)) {
+                        for (Value start : objects(con, stimulus, START_COVERAGE)) {
+                            for (Value end : objects(con, stimulus, END_COVERAGE)) {
+                                try {
+                                    // max * (1 - ((time - zenith) / zenith)^2) between sunrise and sunset
+                                    Literal dayLength = compute(sun.zenith, TWO, MathExpr.MathOp.MULTIPLY);
+                                    Literal base = ZERO;
+                                    if (!compare(sun.time, ZERO, Compare.CompareOp.LT) && !compare(sun.time, dayLength, Compare.CompareOp.GT)) {
+                                        Literal x = compute(compute(sun.time, sun.zenith, MathExpr.MathOp.MINUS), sun.zenith, MathExpr.MathOp.DIVIDE);
+                                        base = compute(MAX_OUTSIDE_ILLUMINANCE, compute(ONE, compute(x, x, MathExpr.MathOp.MULTIPLY), MathExpr.MathOp.MINUS), MathExpr.MathOp.MULTIPLY);
+                                    }
+
+                                    // linear regression between start and end coverage
+                                    Literal range = compute((Literal) end, (Literal) start, MathExpr.MathOp.MINUS);
+                                    Literal cloudCover = compute((Literal) start, compute(compute(sun.time, range, MathExpr.MathOp.MULTIPLY), dayLength, MathExpr.MathOp.DIVIDE), MathExpr.MathOp.PLUS);
+
+                                    changes.addAll(changes(con, (Resource) illuminance, compute(base, cloudCover, MathExpr.MathOp.MULTIPLY)));
+                                } catch (ValueExprEvaluationException | ClassCastException e) {
+                                    // unbound value in SPARQL: no change
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return changes;
+    }
+
+    private List<Change> updateRoomIlluminance(RepositoryConnection con, List<Sun> suns) {
+        List<Change> changes = new ArrayList<>();
+
+        List<Value> outsideValues = new ArrayList<>();
+        for (Resource sensor : subjects(con, RDF.TYPE, OUTSIDE_LUMINANCE_SENSOR)) {
+            for (Value illuminance : objects(con, sensor, OBSERVES)) {
+                if (illuminance instanceof Resource) outsideValues.addAll(objects(con, (Resource) illuminance, NUMERIC_VALUE));
+            }
+        }
+
+        for (Sun sun : suns) {
+            for (Value outsideValue : outsideValues) {
+                for (Resource sensor : subjects(con, RDF.TYPE, LUMINANCE_SENSOR)) {
+                    for (Value room : objects(con, sensor, IS_LOCATED_IN)) {
+                        if (!(room instanceof Resource) || !con.hasStatement((Resource) room, RDF.TYPE, ROOM, true)) continue;
+
+                        for (Value illuminance : objects(con, sensor, OBSERVES)) {
+                            for (Value orientation : objects(con, (Resource) room, ORIENTATION)) {
+                                for (Value occlusionFactor : objects(con, (Resource) room, OCCLUSION_FACTOR)) {
+                                    try {
+                                        Literal factor = compute(MAX_ROOM_ILLUMINANCE, MAX_OUTSIDE_ILLUMINANCE, MathExpr.MathOp.DIVIDE);
+                                        Literal base = compute((Literal) outsideValue, factor, MathExpr.MathOp.MULTIPLY);
+
+                                        // effect of room's orientation towards the sun: from 1 to 0 if east, 0 to 1 if west
+                                        Literal daytime = compute(sun.time, compute(sun.zenith, TWO, MathExpr.MathOp.MULTIPLY), MathExpr.MathOp.DIVIDE);
+                                        Literal orientationFactor = orientation.equals(EAST) ? compute(ONE, daytime, MathExpr.MathOp.MINUS) : daytime;
+
+                                        Literal value = compute(compute(base, orientationFactor, MathExpr.MathOp.MULTIPLY), (Literal) occlusionFactor, MathExpr.MathOp.MULTIPLY);
+
+                                        changes.addAll(changes(con, (Resource) illuminance, value));
+                                    } catch (ValueExprEvaluationException | ClassCastException e) {
+                                        // unbound value in SPARQL: no change
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return changes;
+    }
+
+    private List<Change> updateLighting(RepositoryConnection con) {
+        List<Change> changes = new ArrayList<>();
+
+        // number of lighting systems switched on, per sensor
+        Map<Value, Integer> counts = new HashMap<>();
+        for (Resource cmd : subjects(con, RDF.TYPE, LUMINANCE_COMMAND)) {
+            for (Value sensor : objects(con, cmd, INFLUENCES)) {
+                for (Value lighting : objects(con, cmd, ACTS_ON_PROPERTY)) {
+                    if (lighting instanceof Resource && con.hasStatement((Resource) lighting, RDF.VALUE, ON, true)) {
+                        counts.merge(sensor, 1, Integer::sum);
+                    }
+                }
+            }
+        }
+
+        for (Resource sensor : subjects(con, RDF.TYPE, LUMINANCE_SENSOR)) {
+            Integer count = counts.get(sensor);
+            if (count == null) continue;
+
+            for (Value room : objects(con, sensor, IS_LOCATED_IN)) {
+                if (!(room instanceof Resource) || !con.hasStatement((Resource) room, RDF.TYPE, ROOM, true)) continue;
+
+                for (Value illuminance : objects(con, sensor, OBSERVES)) {
+                    if (!(illuminance instanceof Resource)) continue;
+
+                    for (Value oldValue : objects(con, (Resource) illuminance, NUMERIC_VALUE)) {
+                        try {
+                            Literal increment = compute(Vocabulary.VALUE_FACTORY.createLiteral(BigInteger.valueOf(count)), LAMP_ILLUMINANCE, MathExpr.MathOp.MULTIPLY);
+                            Literal value = compute((Literal) oldValue, increment, MathExpr.MathOp.PLUS);
+
+                            for (Value g : objects(con, (Resource) illuminance, IS_PRIMARY_TOPIC_OF)) {
+                                if (g instanceof Resource && !compare(value, (Literal) oldValue, Compare.CompareOp.EQ)) {
+                                    changes.add(new Change((Resource) illuminance, oldValue, value, (Resource) g));
+                                }
+                            }
+                        } catch (ValueExprEvaluationException | ClassCastException e) {
+                            // unbound value in SPARQL: no change
+                        }
+                    }
+                }
+            }
+        }
+
+        return changes;
+    }
+
+    /**
+     * @return changes replacing all old values of the illuminance by the new value (if distinct)
+     */
+    private static List<Change> changes(RepositoryConnection con, Resource illuminance, Literal value) {
+        List<Change> changes = new ArrayList<>();
+
+        for (Value oldValue : objects(con, illuminance, NUMERIC_VALUE)) {
+            if (!(oldValue instanceof Literal) || compare(value, (Literal) oldValue, Compare.CompareOp.EQ)) continue;
+
+            for (Value g : objects(con, illuminance, IS_PRIMARY_TOPIC_OF)) {
+                if (g instanceof Resource) changes.add(new Change(illuminance, oldValue, value, (Resource) g));
+            }
+        }
+
+        return changes;
+    }
+
+    /**
+     * Applies changes like a SPARQL update: all deletions, then all insertions.
+     */
+    private static void apply(RepositoryConnection con, List<Change> changes) {
+        for (Change c : changes) con.remove(c.illuminance, NUMERIC_VALUE, c.oldValue, c.graph);
+        for (Change c : changes) con.add(c.illuminance, NUMERIC_VALUE, c.value, c.graph);
+    }
+
+    private static List<Sun> suns(RepositoryConnection con) {
+        List<Sun> suns = new ArrayList<>();
+
+        for (Statement st : Iterations.asList(con.getStatements(null, Vocabulary.CURRENT_TIME, null))) {
+            Resource sim = st.getSubject();
+
+            for (Literal timestamp : timestamps(con, st.getObject())) {
+                for (Value sunriseTime : objects(con, sim, SUNRISE_TIME)) {
+                    for (Literal sunriseTimestamp : timestamps(con, sunriseTime)) {
+                        for (Value sunsetTime : objects(con, sim, SUNSET_TIME)) {
+                            for (Literal sunsetTimestamp : timestamps(con, sunsetTime)) {
+                                try {
+                                    Literal sunrise = inUnixTimeStamp(sunriseTimestamp);
+                                    Literal sunset = inUnixTimeStamp(sunsetTimestamp);
+
+                                    Literal time = compute(inUnixTimeStamp(timestamp), sunrise, MathExpr.MathOp.MINUS);
+                                    Literal zenith = compute(compute(sunset, sunrise, MathExpr.MathOp.MINUS), TWO, MathExpr.MathOp.DIVIDE);
+
+                                    suns.add(new Sun(time, zenith));
+                                } catch (ValueExprEvaluationException | IllegalArgumentException e) {
+                                    // not a date/time or evaluation error: no solution
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return suns;
+    }
+
+    private static List<Literal> timestamps(RepositoryConnection con, Value instant) {
+        List<Literal> timestamps = new ArrayList<>();
+        if (!(instant instanceof Resource)) return timestamps;
+
+        for (Value v : objects(con, (Resource) instant, Vocabulary.IN_XSD_DATE_TIME_STAMP)) {
+            if (v instanceof Literal) timestamps.add((Literal) v);
+        }
+
+        return timestamps;
+    }
+
+    /**
+     * Same as sim:inUnixTimeStamp.
+     */
+    private static Literal inUnixTimeStamp(Literal dateTime) {
+        return Vocabulary.VALUE_FACTORY.createLiteral(dateTime.calendarValue().toGregorianCalendar().getTimeInMillis());
+    }
+
+    private static Literal compute(Literal left, Literal right, MathExpr.MathOp op) {
+        return MathUtil.compute(left, right, op);
+    }
+
+    private static boolean compare(Literal left, Literal right, Compare.CompareOp op) {
+        return QueryEvaluationUtil.compareLiterals(left, right, op);
+    }
+
+    private static List<Resource> subjects(RepositoryConnection con, IRI p, Value o) {
+        Set<Resource> subjects = new LinkedHashSet<>();
+        for (Statement st : Iterations.asList(con.getStatements(null, p, o))) subjects.add(st.getSubject());
+
+        return new ArrayList<>(subjects);
+    }
+
+    private static List<Value> objects(RepositoryConnection con, Value s, IRI p) {
+        List<Value> objects = new ArrayList<>();
+        if (!(s instanceof Resource)) return objects;
+
+        for (Statement st : Iterations.asList(con.getStatements((Resource) s, p, null))) objects.add(st.getObject());
+
+        return objects;
+    }
+
+}
@@ -1,13 +1,15 @@
 package org.bold.sim;
 
 import org.bold.http.GraphListener;
+import org.bold.http.QueryListener;
 import org.eclipse.rdf4j.model.IRI;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.Map;
 import java.util.Stack;
 
-public class InteractionHistory extends Stack<InteractionHistory.Timeslot> implements History, GraphListener {
+public class InteractionHistory extends Stack<InteractionHistory.Timeslot> implements History, GraphListener, QueryListener {
 
     class Timeslot {
 
@@ -29,6 +31,34 @@ public class InteractionHistory extends Stack<InteractionHistory.Timeslot> imple
 
         private int extensions = 0;
 
+        private long averageBatch = 0l;
+
+        private int batches = 0;
+
+        private int batchGraphs = 0;
+
+        private int batchStatements = 0;
+
+        private long averageQuery = 0l;
+
+        private int queries = 0;
+
+        private int queryResults = 0;
+
+        private int queryTimeouts = 0;
+
+        private int admitted = 0;
+
+        private int throttled = 0;
+
+        private int overloaded = 0;
+
+        private long lateness = 0l;
+
+        private boolean overrun = false;
+
+        private int skipped = 0;
+
         Timeslot(Long up) {
             this.update = up;
         }
@@ -50,45 +80,94 @@ public class InteractionHistory extends Stack<InteractionHistory.Timeslot> imple
         this.add(new Timeslot(0l));
     }
 
+    /**
+     * Records how the tick that opened the current timeslot was scheduled.
+     *
+     * @param lateness time between the tick's deadline and its actual start (in ms)
+     * @param overrun whether updates took longer than the timeslot
+     * @param skipped number of timeslots dropped before the tick
+     */
+    public void tickScheduled(long lateness, boolean overrun, int skipped) {
+        Timeslot head = this.peek();
+        head.lateness = lateness;
+        head.overrun = overrun;
+        head.skipped = skipped;
+    }
+
     @Override
-    public void graphRetrieved(IRI graphName, Long opTime) {
+    public synchronized void graphRetrieved(IRI graphName, Long opTime) {
         Timeslot head = this.peek();
         head.retrievals++;
         head.averageRetrieval = avg(head.averageRetrieval, opTime);
     }
 
     @Override
-    public void graphReplaced(IRI graphName, Long opTime) {
+    public synchronized void graphReplaced(IRI graphName, Long opTime) {
         Timeslot head = this.peek();
         head.replacements++;
         head.averageReplacement = avg(head.averageReplacement, opTime);
     }
 
     @Override
-    public void graphDeleted(IRI graphName, Long opTime) {
+    public synchronized void graphDeleted(IRI graphName, Long opTime) {
         Timeslot head = this.peek();
         head.deletions++;
         head.averageDeletion = avg(head.averageDeletion, opTime);
     }
 
     @Override
-    public void graphExtended(IRI graphName, Long opTime) {
+    public synchronized void graphExtended(IRI graphName, Long opTime) {
         Timeslot head = this.peek();
         head.extensions++;
         head.averageExtension = avg(head.averageExtension, opTime);
     }
 
+    @Override
+    public synchronized void batchApplied(Map<IRI, Integer> statementCounts, Long opTime) {
+        Timeslot head = this.peek();
+        head.batches++;
+        head.averageBatch = avg(head.averageBatch, opTime);
+        head.batchGraphs += statementCounts.size();
+        for (int count : statementCounts.values()) head.batchStatements += count;
+    }
+
+    @Override
+    public synchronized void queryEvaluated(int resultCount, Long opTime) {
+        Timeslot head = this.peek();
+        head.queries++;
+        head.averageQuery = avg(head.averageQuery, opTime);
+        head.queryResults += resultCount;
+    }
+
+    @Override
+    public synchronized void queryTimedOut(Long opTime) {
+        Timeslot head = this.peek();
+        head.queryTimeouts++;
+    }
+
+    public synchronized void requestAdmitted() {
+        this.peek().admitted++;
+    }
+
+    /**
+     * @param status status of the response sent to the agent (429 if rate-limited, 503 if overloaded)
+     */
+    public synchronized void requestRejected(int status) {
+        if (status == 429) this.peek().throttled++;
+        else this.peek().overloaded++;
+    }
+
     private Long avg(Long l1, Long l2) {
         if (l1 == 0l) return l2;
         else if (l2 == 0l) return l1;
         else return (l1 + l2) / 2;
     }
 
-    public void write(Writer w) throws IOException {
-        w.append("# \"iteration\"\t\"time update\"\t\"nb get\"\t\"avg time get\"\t\"nb put\"\t\"avg time put\"\t\"nb delete\"\t\"avg time delete\"\t\"nb post\"\t\"avg time post\"\n");
+    public synchronized void write(Writer w) throws IOException {
+        w.append("# \"iteration\"\t\"time update\"\t\"nb get\"\t\"avg time get\"\t\"nb put\"\t\"avg time put\"\t\"nb delete\"\t\"avg time delete\"\t\"nb post\"\t\"avg time post\"\t\"lateness\"\t\"overrun\"\t\"skipped\"\t\"nb batch\"\t\"avg time batch\"\t\"nb batch graphs\"\t\"nb batch statements\"\t\"nb query\"\t\"avg time query\"\t\"nb query results\"\t\"nb query timeouts\"\t\"nb admitted\"\t\"nb rejected (429)\"\t\"nb rejected (503)\"\n");
         for (int iteration = 0; iteration < this.size(); iteration++) {
             Timeslot slot = this.get(iteration);
-            w.append(String.format("%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\n", iteration, slot.update, slot.retrievals, slot.averageRetrieval, slot.replacements, slot.averageReplacement, slot.deletions, slot.averageDeletion, slot.extensions, slot.averageExtension));
+            w.append(String.format("%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\n", iteration, slot.update, slot.retrievals, slot.averageRetrieval, slot.replacements, slot.averageReplacement, slot.deletions, slot.averageDeletion, slot.extensions, slot.averageExtension, slot.lateness, slot.overrun ? 1 : 0, slot.skipped, slot.batches, slot.averageBatch, slot.batchGraphs, slot.batchStatements, slot.queries, slot.averageQuery, slot.queryResults, slot.queryTimeouts, slot.admitted, slot.throttled, slot.overloaded));
         }
     }
 
@@ -0,0 +1,79 @@
+package org.bold.sim;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of durations (in ns) with log-linear buckets: each power of two is split into 16 buckets, so that
+ * percentiles are given with a relative error below 1/16, in constant memory whatever the length of the run.
+ *
+ * Durations may be recorded and percentiles computed from different threads.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[64 * SUB_BUCKETS];
+
+    private long count = 0;
+
+    private long max = 0;
+
+    synchronized void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+
+        counts[index(nanos)]++;
+        count++;
+        max = Math.max(max, nanos);
+    }
+
+    synchronized long getCount() {
+        return count;
+    }
+
+    synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * @param p percentile (between 0 and 100)
+     * @return an upper bound of the given percentile of recorded durations (in ns), 0 if none was recorded
+     */
+    synchronized long getPercentile(double p) {
+        long rank = Math.max(1, (long) Math.ceil(p / 100 * count));
+
+        long seen = 0;
+        for (int i = 0; i < counts.length && count > 0; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(upperBound(i), max);
+        }
+
+        return 0;
+    }
+
+    synchronized void clear() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        max = 0;
+    }
+
+    private static int index(long v) {
+        if (v < SUB_BUCKETS) return (int) v;
+
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BUCKET_BITS;
+        int mantissa = (int) (v >>> shift) & (SUB_BUCKETS - 1);
+
+        return (shift + 1) * SUB_BUCKETS + mantissa;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+
+        int shift = index / SUB_BUCKETS - 1;
+        int mantissa = index % SUB_BUCKETS;
+
+        return ((long) (SUB_BUCKETS + mantissa + 1) << shift) - 1;
+    }
+
+}
@@ -0,0 +1,231 @@
+package org.bold.sim;
+
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQuery;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Segmented replay: the history of a run is split into segments of a fixed number of iterations, which are replayed in
+ * parallel, each on its own in-memory store. The state of the dataset at the start of each segment (checkpoint) is
+ * built by applying closed update sequences to an in-memory model (which is much cheaper than evaluating queries), on a
+ * dedicated thread rather than the tick thread. A checkpoint is copied only when its segment is submitted, and at most
+ * as many segments as replayed concurrently are submitted at the same time, so that only that many copies of the
+ * dataset are kept. Query results are merged in iteration order.
+ *
+ * If pipelining is enabled, segments are submitted as soon as all their iterations are closed; otherwise, they are all
+ * submitted at the end of the run.
+ */
+class ParallelReplay {
+
+    private static class Segment {
+
+        private final List<List<BindingSet>> results = new ArrayList<>();
+
+        private List<String> bindingNames = null;
+
+    }
+
+    private final Logger log = LoggerFactory.getLogger(ParallelReplay.class);
+
+    private final UpdateHistory history;
+
+    private final Map<String, String> queries;
+
+    private final Map<String, QueryFootprint> footprints;
+
+    private final String baseURI;
+
+    private final String dumpPattern;
+
+    private final int interval;
+
+    private final int lag;
+
+    private final FaultWriter writer;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Thread building checkpoints and submitting segments (the only one accessing the fields below until it stops).
+     */
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "bold-replay-checkpoints");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Segments submitted but not replayed yet (each holding a copy of the dataset).
+     */
+    private final Semaphore slots;
+
+    private final Model state = new LinkedHashModel();
+
+    private final List<ForkJoinTask<Segment>> segments = new ArrayList<>();
+
+    private int applied = 0;
+
+    /**
+     * @param history history of the live run
+     * @param queries queries to evaluate after each iteration (name, SPARQL string)
+     * @param footprints see {@link Replayer}
+     * @param baseURI base URI against which queries are parsed
+     * @param dumpPattern see {@link Replayer}
+     * @param interval number of iterations between two checkpoints (i.e. length of a segment)
+     * @param parallelism number of segments replayed concurrently
+     * @param lag see {@link ReplayWorker} (if negative, segments are all replayed at the end of the run)
+     * @param writer writer to which query results are passed (must be opened)
+     */
+    ParallelReplay(UpdateHistory history, Map<String, String> queries, Map<String, QueryFootprint> footprints, String baseURI, String dumpPattern, int interval, int parallelism, int lag, FaultWriter writer) {
+        this.history = history;
+        this.queries = queries;
+        this.footprints = footprints;
+        this.baseURI = baseURI;
+        this.dumpPattern = dumpPattern;
+        this.interval = interval;
+        this.lag = lag;
+        this.writer = writer;
+
+        pool = new ForkJoinPool(parallelism);
+        slots = new Semaphore(parallelism);
+    }
+
+    /**
+     * If pipelining is enabled, submits segments closed since last call (checkpoints are built asynchronously).
+     */
+    void iterationClosed() {
+        int closed = history.size() - 1; // last sequence is still open
+
+        if (lag >= 0) builder.execute(() -> submit(closed - lag));
+    }
+
+    /**
+     * Replays all remaining segments, writes results of all iterations in order and releases resources.
+     *
+     * @throws RuntimeException if a segment failed (results of iterations up to that segment are written)
+     */
+    void finish() {
+        int end = history.size();
+
+        try {
+            Future<?> submitted = builder.submit(() -> {
+                submit(end);
+
+                if (segments.size() * interval < end) {
+                    // last (incomplete) segment
+                    fork(segments.size() * interval, end);
+                }
+            });
+
+            submitted.get(); // note: segments are all submitted (and no longer accessed by the builder)
+
+            for (ForkJoinTask<Segment> task : segments) {
+                Segment s = task.get();
+
+                for (List<BindingSet> solutions : s.results) {
+                    writer.write(s.bindingNames, solutions);
+                }
+            }
+
+            log.info("Replayed {} segment(s) of {} iteration(s).", segments.size(), interval);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            // note: results of later segments are not written, they would not be aligned with iterations
+            throw new RuntimeException("Segment replay failed", e.getCause());
+        } finally {
+            builder.shutdownNow();
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Submits all segments whose iterations are available (called by the builder thread only).
+     */
+    private void submit(int available) {
+        while ((segments.size() + 1) * interval <= available) {
+            int from = segments.size() * interval;
+            fork(from, from + interval);
+        }
+    }
+
+    private void fork(int from, int to) {
+        advance(from);
+
+        try {
+            slots.acquire(); // note: blocks the builder (not the run) until a segment is replayed
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+
+        Model checkpoint = new LinkedHashModel(state);
+        segments.add(pool.submit(() -> {
+            try {
+                return replay(from, to, checkpoint);
+            } finally {
+                slots.release();
+            }
+        }));
+    }
+
+    private void advance(int iteration) {
+        while (applied < iteration) {
+            for (UpdateHistory.Update u : history.get(applied)) {
+                if (u.getOperation().equals(UpdateHistory.UpdateOperation.INSERT)) {
+                    state.add(u.getStatement());
+                } else if (u.getOperation().equals(UpdateHistory.UpdateOperation.DELETE)) {
+                    state.remove(u.getStatement());
+                }
+            }
+
+            applied++;
+        }
+    }
+
+    private Segment replay(int from, int to, Model checkpoint) {
+        Segment s = new Segment();
+
+        SailRepository repo = new SailRepository(new MemoryStore());
+        RepositoryConnection con = repo.getConnection();
+
+        try {
+            Map<String, TupleQuery> prepared = new LinkedHashMap<>();
+            for (Map.Entry<String, String> kv : queries.entrySet()) {
+                prepared.put(kv.getKey(), con.prepareTupleQuery(QueryLanguage.SPARQL, kv.getValue(), baseURI));
+            }
+
+            Replayer replayer = new Replayer(con, history, prepared, footprints, dumpPattern);
+            replayer.reset(checkpoint);
+
+            for (int iteration = from; iteration < to; iteration++) {
+                s.results.add(replayer.replay(iteration));
+            }
+
+            s.bindingNames = replayer.getBindingNames();
+        } finally {
+            con.close();
+            repo.shutDown();
+        }
+
+        return s;
+    }
+
+}
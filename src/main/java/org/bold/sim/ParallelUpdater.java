@@ -0,0 +1,101 @@
+package org.bold.sim;
+
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Executes the continuous updates of a tick in stages: consecutive updates that do not conflict (see
+ * {@link UpdateFootprint}) form a stage and are executed concurrently, each on a connection of its own. Stages are
+ * executed in order, so that the result is the same as with sequential execution.
+ */
+class ParallelUpdater {
+
+    private final List<List<String>> stages = new ArrayList<>();
+
+    private final RepositoryConnection mainConnection;
+
+    private final BlockingQueue<RepositoryConnection> connections = new LinkedBlockingQueue<>();
+
+    private final BiConsumer<String, RepositoryConnection> executor;
+
+    private final ExecutorService pool;
+
+    /**
+     * @param names names of the updates, in registration order
+     * @param footprints footprints of the updates (updates without footprint are executed alone)
+     * @param parallelism maximum number of updates executed concurrently
+     * @param connectionFactory factory of connections to the simulation store (with history listeners)
+     * @param mainConnection connection on which stages of a single update are executed
+     * @param executor function executing the given update on the given connection
+     */
+    ParallelUpdater(Collection<String> names, Map<String, UpdateFootprint> footprints, int parallelism, Supplier<RepositoryConnection> connectionFactory, RepositoryConnection mainConnection, BiConsumer<String, RepositoryConnection> executor) {
+        this.mainConnection = mainConnection;
+        this.executor = executor;
+
+        List<String> stage = new ArrayList<>();
+        for (String name : names) {
+            UpdateFootprint fp = footprints.get(name);
+
+            boolean conflict = fp == null;
+            for (String other : stage) conflict |= fp != null && fp.conflicts(footprints.get(other));
+
+            if (conflict && !stage.isEmpty()) {
+                stages.add(stage);
+                stage = new ArrayList<>();
+            }
+
+            stage.add(name);
+        }
+        if (!stage.isEmpty()) stages.add(stage);
+
+        for (int i = 0; i < parallelism; i++) connections.add(connectionFactory.get());
+
+        pool = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "bold-update-worker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    List<List<String>> getStages() {
+        return stages;
+    }
+
+    void execute() {
+        for (List<String> stage : stages) {
+            if (stage.size() == 1) {
+                executor.accept(stage.get(0), mainConnection);
+                continue;
+            }
+
+            List<Future<?>> futures = new ArrayList<>();
+            for (String name : stage) {
+                futures.add(pool.submit(() -> {
+                    RepositoryConnection con = connections.take();
+                    try {
+                        executor.accept(name, con);
+                    } finally {
+                        connections.add(con);
+                    }
+                    return null;
+                }));
+            }
+
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,177 @@
+package org.bold.sim;
+
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.vocabulary.FN;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.algebra.*;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Triple patterns a query reads, with their constant terms (subject, predicate, object, graph). A change can only
+ * affect the result of the query if its statement matches one of the patterns, which allows to reuse the result of the
+ * previous iteration during replay (see {@link Replayer}).
+ *
+ * Queries calling non-deterministic functions (RAND, NOW, UUID, BNODE...) or functions the analysis does not know are
+ * volatile: they must be evaluated at every iteration.
+ */
+class QueryFootprint {
+
+    private static final Set<String> VOLATILE_FUNCTIONS = new HashSet<>(Arrays.asList("rand", "now", "uuid", "struuid"));
+
+    private final List<Value[]> patterns = new ArrayList<>();
+
+    private boolean isVolatile = false;
+
+    private boolean usesRandom = false;
+
+    /**
+     * @return the footprint of the given query (volatile if the query cannot be parsed)
+     */
+    static QueryFootprint of(String sparqlString, String baseURI) {
+        QueryFootprint footprint = new QueryFootprint();
+
+        try {
+            footprint.add(QueryParserUtil.parseTupleQuery(QueryLanguage.SPARQL, sparqlString, baseURI).getTupleExpr());
+        } catch (Exception e) {
+            footprint.isVolatile = true;
+        }
+
+        return footprint;
+    }
+
+    /**
+     * Adds the patterns of an algebra expression (e.g. the template of a SPARQL update) to the footprint.
+     */
+    void add(TupleExpr expr) {
+        expr.visit(new Visitor());
+    }
+
+    /**
+     * Adds a pattern matching all statements to the footprint.
+     */
+    void addAll() {
+        patterns.add(new Value[4]);
+    }
+
+    boolean isVolatile() {
+        return isVolatile;
+    }
+
+    /**
+     * @return true if the query draws random numbers (e.g. RAND, sim:rand), whose sequence depends on evaluation order
+     */
+    boolean usesRandom() {
+        return usesRandom;
+    }
+
+    /**
+     * @return true if some statement may match patterns of both footprints
+     */
+    boolean overlaps(QueryFootprint other) {
+        for (Value[] p : patterns) {
+            for (Value[] q : other.patterns) {
+                boolean overlap = true;
+                for (int i = 0; i < p.length; i++) {
+                    overlap &= p[i] == null || q[i] == null || p[i].equals(q[i]);
+                }
+
+                if (overlap) return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return true if the statement matches one of the query's patterns (or if the query is volatile)
+     */
+    boolean matches(Statement st) {
+        if (isVolatile) return true;
+
+        for (Value[] p : patterns) {
+            if (matches(p[0], st.getSubject())
+                    && matches(p[1], st.getPredicate())
+                    && matches(p[2], st.getObject())
+                    && matches(p[3], st.getContext())) return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        if (isVolatile) return "(volatile)";
+
+        StringBuilder builder = new StringBuilder();
+        for (Value[] p : patterns) {
+            builder.append('(');
+            for (int i = 0; i < p.length; i++) {
+                builder.append(p[i] == null ? "*" : p[i].stringValue()).append(i < p.length - 1 ? " " : "");
+            }
+            builder.append(')');
+        }
+
+        return builder.toString();
+    }
+
+    private static boolean matches(Value constant, Value v) {
+        return constant == null || constant.equals(v);
+    }
+
+    private static Value constant(Var v) {
+        return v != null && v.hasValue() ? v.getValue() : null;
+    }
+
+    private class Visitor extends AbstractQueryModelVisitor<RuntimeException> {
+
+        @Override
+        public void meet(StatementPattern node) {
+            // note: without graph variable, the default graph is the union of all graphs
+            patterns.add(new Value[] {
+                    constant(node.getSubjectVar()),
+                    constant(node.getPredicateVar()),
+                    constant(node.getObjectVar()),
+                    constant(node.getContextVar())
+            });
+        }
+
+        @Override
+        public void meet(ZeroLengthPath node) {
+            // matches all terms of the dataset
+            addAll();
+        }
+
+        @Override
+        public void meet(FunctionCall node) {
+            String uri = node.getURI();
+            String name = uri.substring(Math.max(uri.lastIndexOf('#'), uri.lastIndexOf('/')) + 1).toLowerCase();
+
+            boolean builtIn = uri.indexOf(':') < 0 || uri.startsWith(FN.NAMESPACE) || uri.startsWith(XSD.NAMESPACE);
+            if (!builtIn || VOLATILE_FUNCTIONS.contains(name)) isVolatile = true;
+            if (name.endsWith("rand")) usesRandom = true;
+
+            super.meet(node);
+        }
+
+        @Override
+        public void meet(BNodeGenerator node) {
+            isVolatile = true;
+        }
+
+        @Override
+        public void meet(Service node) {
+            isVolatile = true;
+        }
+
+    }
+
+}
@@ -0,0 +1,103 @@
+package org.bold.sim;
+
+import org.eclipse.rdf4j.query.BindingSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Background replay, running concurrently with a simulation run. The worker trails the live run by a fixed number of
+ * closed iterations (the last iteration of an {@link UpdateHistory} is still open, updates being recorded into it).
+ * When the run ends, the remaining iterations are replayed and the worker terminates.
+ */
+class ReplayWorker implements Runnable {
+
+    private final Logger log = LoggerFactory.getLogger(ReplayWorker.class);
+
+    private final Replayer replayer;
+
+    private final FaultWriter writer;
+
+    private final UpdateHistory history;
+
+    private final int lag;
+
+    private volatile boolean runDone = false;
+
+    private boolean pending = false;
+
+    private int next = 0;
+
+    private Thread thread = null;
+
+    /**
+     * @param replayer replayer on which iterations are submitted (must be reset)
+     * @param writer writer to which query results are passed (must be opened)
+     * @param history history of the live run
+     * @param lag number of closed iterations that are not replayed yet while the run goes on
+     */
+    ReplayWorker(Replayer replayer, FaultWriter writer, UpdateHistory history, int lag) {
+        this.replayer = replayer;
+        this.writer = writer;
+        this.history = history;
+        this.lag = lag;
+    }
+
+    void start() {
+        thread = new Thread(this, "bold-replay-worker");
+        thread.start();
+    }
+
+    /**
+     * Wakes the worker up, a new iteration being available for replay.
+     */
+    synchronized void iterationClosed() {
+        pending = true;
+        notifyAll();
+    }
+
+    /**
+     * Waits for the worker to replay all iterations of the run (including the last one).
+     */
+    void finish() {
+        synchronized (this) {
+            runDone = true;
+            notifyAll();
+        }
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            boolean done = runDone; // read before history size, for no iteration to be missed
+            int available = done ? history.size() : history.size() - 1 - lag;
+
+            while (next < available) {
+                List<BindingSet> solutions = replayer.replay(next++);
+                writer.write(replayer.getBindingNames(), solutions);
+            }
+
+            if (done) break;
+
+            synchronized (this) {
+                try {
+                    if (!runDone && !pending) wait();
+                    pending = false;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        log.info("Replay worker done ({} iterations).", next);
+    }
+
+}
@@ -0,0 +1,182 @@
+package org.bold.sim;
+
+import org.bold.io.FileUtils;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.TupleQuery;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.Rio;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Replays the updates recorded in an {@link UpdateHistory}, iteration by iteration, on a store that is distinct from the
+ * live simulation store. After each iteration, registered queries are evaluated (and the replayed dataset is
+ * optionally dumped). Results are returned to the caller, see {@link FaultWriter}. If none of the changes of an
+ * iteration matches a query's footprint (see {@link QueryFootprint}), the result of the previous iteration is reused.
+ *
+ * Iterations must be replayed in order, from a single thread.
+ */
+class Replayer {
+
+    private final Logger log = LoggerFactory.getLogger(Replayer.class);
+
+    private final RepositoryConnection connection;
+
+    private final UpdateHistory history;
+
+    private final Map<String, TupleQuery> queries;
+
+    private final Map<String, QueryFootprint> footprints;
+
+    private final Map<String, List<BindingSet>> previousResults = new HashMap<>();
+
+    private final String dumpPattern;
+
+    private final RDFFormat dumpFormat;
+
+    private List<String> bindingNames = null;
+
+    /**
+     * @param con connection to the replay store (queries must have been prepared on it)
+     * @param history updates to replay
+     * @param queries queries to evaluate after each iteration
+     * @param footprints footprints of the queries (queries without footprint are evaluated at every iteration)
+     * @param dumpPattern file name pattern for dataset dumps (%d: iteration number), or null
+     */
+    Replayer(RepositoryConnection con, UpdateHistory history, Map<String, TupleQuery> queries, Map<String, QueryFootprint> footprints, String dumpPattern) {
+        this.connection = con;
+        this.history = history;
+        this.queries = queries;
+        this.footprints = footprints;
+        this.dumpPattern = dumpPattern;
+
+        if (dumpPattern != null) {
+            FileUtils.makePath(dumpPattern);
+            dumpFormat = Rio.getParserFormatForFileName(dumpPattern).orElse(RDFFormat.TRIG);
+        } else {
+            dumpFormat = null;
+        }
+    }
+
+    /**
+     * Clears the replay store, to replay from the first iteration.
+     */
+    void reset() {
+        connection.clear();
+        previousResults.clear();
+    }
+
+    /**
+     * Clears the replay store and loads a checkpoint, to replay from the checkpoint's iteration.
+     *
+     * @param checkpoint state of the dataset before the first iteration to replay
+     */
+    void reset(Model checkpoint) {
+        connection.clear();
+        connection.add(checkpoint);
+        previousResults.clear();
+    }
+
+    /**
+     * @return names of the bindings of the first evaluated query result (null if no query was evaluated yet)
+     */
+    List<String> getBindingNames() {
+        return bindingNames;
+    }
+
+    /**
+     * Replays updates of the given iteration and submits queries.
+     *
+     * @return solutions of all queries, in order
+     */
+    List<BindingSet> replay(int iteration) {
+        List<BindingSet> solutions = new ArrayList<>();
+
+        try {
+            UpdateHistory.UpdateSequence cs = history.get(iteration);
+
+            log.info("Replaying iteration {}...", iteration);
+
+            Set<String> affected = new HashSet<>();
+            for (String name : queries.keySet()) {
+                QueryFootprint fp = footprints.get(name);
+                if (fp == null || fp.isVolatile() || !previousResults.containsKey(name)) affected.add(name);
+            }
+
+            int insertions = 0, deletions = 0;
+            for (UpdateHistory.Update u : cs) {
+                if (affected.size() < queries.size()) {
+                    for (String name : queries.keySet()) {
+                        if (!affected.contains(name) && footprints.get(name).matches(u.getStatement())) affected.add(name);
+                    }
+                }
+
+                if (u.getOperation().equals(UpdateHistory.UpdateOperation.INSERT)) {
+                    connection.add(u.getStatement());
+                    insertions++;
+                } else if (u.getOperation().equals(UpdateHistory.UpdateOperation.DELETE)) {
+                    connection.remove(u.getStatement());
+                    deletions++;
+                }
+            }
+
+            log.info("Done {} insertions, {} deletions.", insertions, deletions);
+
+            if (dumpFormat != null) {
+                String dumpFilename = String.format(dumpPattern, iteration);
+                try {
+                    Writer dumpWriter = new FileWriter(dumpFilename);
+                    connection.export(Rio.createWriter(dumpFormat, dumpWriter));
+
+                    log.info("Dumped dataset to {}.", dumpFilename);
+                } catch (IOException e) {
+                    e.printStackTrace(); // TODO clean error handling
+                }
+            }
+
+            for (Map.Entry<String, TupleQuery> kv : queries.entrySet()) {
+                if (!affected.contains(kv.getKey())) {
+                    solutions.addAll(previousResults.get(kv.getKey()));
+                    continue;
+                }
+
+                long before = System.currentTimeMillis();
+
+                TupleQueryResult result = kv.getValue().evaluate();
+
+                if (bindingNames == null) {
+                    bindingNames = result.getBindingNames();
+                }
+
+                List<BindingSet> querySolutions = new ArrayList<>();
+                for (BindingSet bs : result) {
+                    querySolutions.add(bs);
+                }
+
+                solutions.addAll(querySolutions);
+                previousResults.put(kv.getKey(), querySolutions);
+
+                long after = System.currentTimeMillis();
+
+                log.info("Executed query in {} ms.", after - before); // TODO sum
+            }
+
+            if (affected.size() < queries.size()) {
+                log.info("Reused results of {} unaffected query(ies).", queries.size() - affected.size());
+            }
+        } catch (Exception e) {
+            e.printStackTrace(); // TODO clean error handling
+        }
+
+        return solutions;
+    }
+
+}
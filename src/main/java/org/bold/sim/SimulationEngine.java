@@ -3,18 +3,24 @@ package org.bold.sim;
 import org.bold.io.FileUtils;
 import org.eclipse.rdf4j.model.Model;
 import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.common.transaction.IsolationLevel;
 import org.eclipse.rdf4j.query.*;
-import org.eclipse.rdf4j.query.resultio.text.csv.SPARQLResultsCSVWriter;
+import org.eclipse.rdf4j.repository.Repository;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
 import org.eclipse.rdf4j.rio.RDFFormat;
 import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * Main entity of the BOLD server, managing the state of the simulation (configuration, init, runtime, replay) and the
@@ -36,7 +42,9 @@ public class SimulationEngine {
 
     private final Logger log = LoggerFactory.getLogger(SimulationEngine.class);
 
-    private final Integer timeSlotDuration = 1000; // TODO as config parameter
+    private long timeSlotDuration = 1000;
+
+    private TickScheduler.OverrunPolicy overrunPolicy = TickScheduler.OverrunPolicy.CATCH_UP;
 
     private EngineState currentState = EngineState.CREATED;
 
@@ -44,38 +52,90 @@ public class SimulationEngine {
 
     private final Map<String, Update> singleUpdates = new LinkedHashMap<>();
 
-    private final Map<String, Update> continuousUpdates = new LinkedHashMap<>();
+    private final Map<String, UpdateKernel> continuousUpdates = new LinkedHashMap<>();
+
+    private final Map<String, UpdateFootprint> updateFootprints = new HashMap<>();
+
+    private final Map<String, LatencyHistogram> updateLatencies = new LinkedHashMap<>();
+
+    private final LatencyHistogram tickLatency = new LatencyHistogram();
 
     private final Map<String, TupleQuery> queries = new HashMap<>();
 
+    private final Map<String, String> queryStrings = new HashMap<>();
+
+    private final Map<String, QueryFootprint> footprints = new HashMap<>();
+
     private String dumpPattern = null;
 
+    private int replayLag = -1;
+
+    private int checkpointInterval = 0;
+
+    private int replayParallelism = Runtime.getRuntime().availableProcessors();
+
     private String faultFilename;
 
     private String interactionFilename = "interactions.tsv"; // FIXME as config parameter
 
+    private String updateFilename = "updates.tsv"; // FIXME as config parameter
+
     private final RepositoryConnection connection;
 
+    private final Repository replayRepository;
+
     private final RepositoryConnection replayConnection;
 
+    private Replayer replayer;
+
+    private final FaultWriter faultWriter;
+
+    private ReplayWorker replayWorker = null;
+
+    private ParallelReplay parallelReplay = null;
+
+    private int updateParallelism = 1;
+
+    private Supplier<RepositoryConnection> connectionFactory = null;
+
+    private Runnable rollbackListener = null;
+
+    private ParallelUpdater parallelUpdater = null;
+
+    private IsolationLevel tickIsolation = null;
+
+    private final List<History> tickListeners = new ArrayList<>();
+
     private final UpdateHistory updateHistory;
 
     private final InteractionHistory interactionHistory;
 
     private final String baseURI;
 
-    private Timer timer;
+    private TickScheduler scheduler;
+
+    private long tickLateness = 0;
+
+    private int tickSkipped = 0;
+
+    private boolean headless = false;
+
+    private long runStart = 0;
 
     private BooleanQuery simRunningQuery = null; // TODO clean assignment
 
     public SimulationEngine(String base, RepositoryConnection con, UpdateHistory updates, InteractionHistory interactions, String faultFilename) {
-        this.faultFilename = faultFilename;        
+        this.faultFilename = faultFilename;
+        faultWriter = new FaultWriter(faultFilename);
         baseURI = base;
 
         // RDF store initialization
         Vocabulary.registerFunctions();
         connection = con;
-        replayConnection = con.getRepository().getConnection();
+
+        // note: replay runs on a separate store, possibly while the simulation runs
+        replayRepository = new SailRepository(new MemoryStore());
+        replayConnection = replayRepository.getConnection();
 
         updateHistory = updates;
         interactionHistory = interactions;
@@ -83,7 +143,7 @@ public class SimulationEngine {
         try {
             // sim resource must be updated first, before any other resource
             registerSingleUpdate("sim-init.rq");
-            registerContinuousUpdate("sim.rq");
+            registerContinuousUpdate("clock", new ClockKernel());
 
             // simulation ends when no iteration is left in sim resource
             String buf = FileUtils.asString(FileUtils.getFileOrResource("sim-running.rq"));
@@ -107,8 +167,21 @@ public class SimulationEngine {
     }
 
     public SimulationEngine registerContinuousUpdate(String name, String sparulString) throws IOException {
-        Update u = connection.prepareUpdate(QueryLanguage.SPARQL, sparulString, baseURI);
-        continuousUpdates.put(name, u);
+        continuousUpdates.put(name, new SparqlUpdateKernel(connection, sparulString, baseURI));
+        updateFootprints.put(name, UpdateFootprint.of(sparulString, baseURI));
+        updateLatencies.put(name, new LatencyHistogram());
+
+        return this;
+    }
+
+    /**
+     * Registers an update executed at every tick, after all updates registered before (an update registered under an
+     * existing name replaces it, at the same position).
+     */
+    public SimulationEngine registerContinuousUpdate(String name, UpdateKernel kernel) {
+        continuousUpdates.put(name, kernel);
+        updateFootprints.remove(name); // note: read/write sets of kernels are unknown
+        updateLatencies.put(name, new LatencyHistogram());
 
         return this;
     }
@@ -123,6 +196,11 @@ public class SimulationEngine {
     public SimulationEngine registerQuery(String name, String sparqlString) throws IOException {
         TupleQuery q = replayConnection.prepareTupleQuery(QueryLanguage.SPARQL, sparqlString, baseURI);
         queries.put(name, q);
+        queryStrings.put(name, sparqlString);
+
+        QueryFootprint fp = QueryFootprint.of(sparqlString, baseURI);
+        footprints.put(name, fp);
+        log.info("Query {} reads patterns {}.", name, fp);
 
         return this;
     }
@@ -149,16 +227,205 @@ public class SimulationEngine {
         return this;
     }
 
+    /**
+     * @param duration wall-clock duration of a timeslot (in ms), i.e. period between two ticks of a simulation run
+     */
+    public SimulationEngine setTimeSlotDuration(long duration) {
+        timeSlotDuration = duration;
+
+        return this;
+    }
+
+    public long getTimeSlotDuration() {
+        return timeSlotDuration;
+    }
+
+    /**
+     * @param listener notified at every tick of the simulation, with the execution time of continuous updates
+     */
+    public SimulationEngine addTickListener(History listener) {
+        tickListeners.add(listener);
+
+        return this;
+    }
+
+    /**
+     * @param policy behavior of the engine when updates take longer than a timeslot
+     */
+    public SimulationEngine setOverrunPolicy(TickScheduler.OverrunPolicy policy) {
+        overrunPolicy = policy;
+
+        return this;
+    }
+
     public SimulationEngine setDumpPattern(String filenamePattern) {
         dumpPattern = filenamePattern;
 
         return this;
     }
 
+    /**
+     * Enables replay while the simulation runs. The replay then trails the live run by the given number of closed
+     * iterations (a negative value disables pipelining: replay starts at the end of the run).
+     *
+     * @param lag number of closed iterations not yet replayed while the run goes on
+     */
+    public SimulationEngine setReplayLag(int lag) {
+        replayLag = lag;
+
+        return this;
+    }
+
+    /**
+     * Enables parallel replay: checkpoints of the dataset are built during the run every given number of iterations,
+     * and segments between two checkpoints are replayed concurrently (0 disables parallel replay).
+     *
+     * @param interval number of iterations between two checkpoints
+     * @param parallelism maximum number of segments replayed concurrently
+     */
+    public SimulationEngine setCheckpointInterval(int interval, int parallelism) {
+        checkpointInterval = interval;
+        replayParallelism = parallelism;
+
+        return this;
+    }
+
+    /**
+     * Moves closed iterations of the update history to an append-only change log on disk (see {@link ChangeLog}), so
+     * that the length of a run is bounded by disk space rather than heap space.
+     *
+     * @param directory directory in which log segments are written
+     * @param segmentSize size of a log segment (in bytes)
+     */
+    public SimulationEngine setChangeLog(String directory, int segmentSize) throws IOException {
+        updateHistory.setChangeLog(new ChangeLog(new File(directory), segmentSize));
+
+        return this;
+    }
+
+    /**
+     * @param factory factory of connections to the simulation store, notifying the same listeners as the engine's
+     *                connection (required for parallel updates)
+     */
+    public SimulationEngine setConnectionFactory(Supplier<RepositoryConnection> factory) {
+        connectionFactory = factory;
+
+        return this;
+    }
+
+    /**
+     * @param listener called (in the rolling back thread) whenever a transaction of continuous updates is rolled back,
+     *                 e.g. for listeners of the engine's connections to discard the changes they were notified
+     */
+    public SimulationEngine setRollbackListener(Runnable listener) {
+        rollbackListener = listener;
+
+        return this;
+    }
+
+    /**
+     * Enables parallel execution of continuous updates: within a tick, consecutive updates reading and writing
+     * disjoint sets of statements are executed concurrently (1 disables parallel updates).
+     *
+     * @param parallelism maximum number of updates executed concurrently
+     */
+    public SimulationEngine setUpdateParallelism(int parallelism) {
+        updateParallelism = parallelism;
+
+        return this;
+    }
+
+    /**
+     * Enables tick transactions: all continuous updates of an iteration are committed at once (agents never observe a
+     * partially updated dataset). Tick transactions take precedence over parallel updates.
+     *
+     * @param level isolation level of the transaction (null to commit each update separately)
+     */
+    public SimulationEngine setTickTransaction(IsolationLevel level) {
+        tickIsolation = level;
+
+        return this;
+    }
+
     public void registrationDone() {
         callTransition();
     }
 
+    /**
+     * Executes a full simulation run (init, updates, replay) in the calling thread, without waiting for agents: ticks
+     * are executed back-to-back, as fast as possible. The sim resource (giving the number of iterations) must already
+     * be in the store. As with scheduled ticks, a failed tick is logged and the run goes on.
+     */
+    public void runHeadless() {
+        if (currentState != EngineState.EMPTY_STORE) {
+            throw new IllegalSimulationStateException("Engine not waiting for a simulation run: " + currentState);
+        }
+
+        headless = true;
+
+        try {
+            callTransition(); // init, then run
+            while (currentState == EngineState.RUNNING) {
+                try {
+                    callTransition();
+                } catch (RuntimeException e) {
+                    log.error("Tick failed.", e); // the run goes on (see TickScheduler)
+                }
+            }
+        } finally {
+            headless = false;
+        }
+    }
+
+    /**
+     * Replays the iterations found in a change log directory (e.g. written by a crashed run), without executing any
+     * update. The engine must not log its own changes to the same directory.
+     */
+    public void replayChangeLog(String directory) throws IOException {
+        if (currentState != EngineState.EMPTY_STORE) {
+            throw new IllegalSimulationStateException("Engine not waiting for a simulation run: " + currentState);
+        }
+
+        updateHistory.recover(new File(directory));
+
+        runStart = System.nanoTime();
+        faultWriter.open(queries.keySet());
+
+        currentState = EngineState.REPLAYING;
+        callTransition();
+    }
+
+    /**
+     * Writes percentiles of the execution time of each continuous update (and of all updates of a tick) during the
+     * current (or last) run, as tab-separated values.
+     */
+    public void writeUpdateStatistics(Writer w) throws IOException {
+        w.append("# \"update\"\t\"count\"\t\"p50 (ns)\"\t\"p95 (ns)\"\t\"p99 (ns)\"\t\"max (ns)\"\n");
+
+        for (Map.Entry<String, LatencyHistogram> kv : updateLatencies.entrySet()) {
+            writeStatistics(w, kv.getKey(), kv.getValue());
+        }
+
+        writeStatistics(w, "(tick)", tickLatency);
+    }
+
+    private static void writeStatistics(Writer w, String name, LatencyHistogram h) throws IOException {
+        w.append(String.format("\"%s\"\t%d\t%d\t%d\t%d\t%d\n", name, h.getCount(), h.getPercentile(50), h.getPercentile(95), h.getPercentile(99), h.getMax()));
+    }
+
+    /**
+     * For test purposes.
+     *
+     * @param interactions file to which interaction counts/times are appended
+     * @param updates file to which update times are appended
+     */
+    SimulationEngine setStatisticsFiles(String interactions, String updates) {
+        interactionFilename = interactions;
+        updateFilename = updates;
+
+        return this;
+    }
+
     /**
      * For test purposes.
      *
@@ -179,7 +446,8 @@ public class SimulationEngine {
             case CONFIGURED:
                 // configuration done by successive calls to class methods
                 // TODO use a Configuration object
-                log.info("Simulation engine configured. Current configuration: (single updates) {}; (continuous updates) {}; (queries) {}; (dump pattern) {}.", singleUpdates.keySet(), continuousUpdates.keySet(), queries.keySet(), dumpPattern);
+                log.info("Simulation engine configured. Current configuration: (single updates) {}; (continuous updates) {}; (queries) {}; (dump pattern) {}; (timeslot) {} ms, {} on overrun; (replay lag) {}; (checkpoint interval) {}.", singleUpdates.keySet(), continuousUpdates.keySet(), queries.keySet(), dumpPattern, timeSlotDuration, overrunPolicy, replayLag, checkpointInterval);
+                replayer = new Replayer(replayConnection, updateHistory, queries, footprints, dumpPattern);
                 log.info("Waiting for agent's start command...");
                 currentState = EngineState.EMPTY_STORE;
                 break;
@@ -196,8 +464,9 @@ public class SimulationEngine {
 
             case READY:
                 log.info("Simulation running...");
-                run();
+                // note: state must change before the first tick is scheduled
                 currentState = EngineState.RUNNING;
+                run();
                 break;
 
             case RUNNING:
@@ -211,9 +480,15 @@ public class SimulationEngine {
                 break;
 
             case REPLAYING:
-                log.info("Simulation run done. Replaying simulation...");
+                long iterations = updateHistory.size();
+                long runTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - runStart);
+                log.info("Simulation run done: {} iterations in {} ms ({} iterations/s). Replaying simulation...", iterations, runTime, rate(iterations, runTime));
+                log.info("{} changes recorded, {} after compaction ({} terms, ~{} bytes/change in memory, {} bytes logged).", updateHistory.getRecordedCount(), updateHistory.getChangeCount(), updateHistory.getTermCount(), updateHistory.getBytesPerChange(), updateHistory.getLogSize());
+
+                long before = System.nanoTime();
                 replay();
-                log.info("Replay done.");
+                long replayTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+                log.info("Replay done: {} iterations in {} ms ({} iterations/s).", iterations, replayTime, rate(iterations, replayTime));
                 currentState = EngineState.DIRTY_STORE;
                 callTransition();
                 break;
@@ -242,121 +517,151 @@ public class SimulationEngine {
     }
 
     private void run() {
-        TimerTask task = new TimerTask() {
-            @Override
-            public void run() {
-                callTransition();
-            }
-        };
+        runStart = System.nanoTime();
 
-        timer = new Timer();
-        timer.scheduleAtFixedRate(task, 0, timeSlotDuration);
-    }
+        try {
+            faultWriter.open(queries.keySet());
+        } catch (IOException e) {
+            e.printStackTrace(); // TODO clean error handling
+        }
 
-    private void update() {
-        long before = System.currentTimeMillis();
-        for (Update u : continuousUpdates.values()) u.execute();
-        long after = System.currentTimeMillis();
+        if (checkpointInterval > 0) {
+            Map<String, String> orderedQueries = new LinkedHashMap<>();
+            for (String name : queries.keySet()) {
+                orderedQueries.put(name, queryStrings.get(name));
+            }
 
-        long t = after - before;
-        updateHistory.timeIncremented(t);
-        interactionHistory.timeIncremented(t);
+            parallelReplay = new ParallelReplay(updateHistory, orderedQueries, footprints, baseURI, dumpPattern, checkpointInterval, replayParallelism, replayLag, faultWriter);
+            parallelReplay.iterationClosed(); // init
+        } else if (replayLag >= 0) {
+            replayer.reset();
 
-        if (t > timeSlotDuration) {
-            log.warn("updates took more than timeslot duration ({} ms).", after - before); // TODO record as TSV instead
+            replayWorker = new ReplayWorker(replayer, faultWriter, updateHistory, replayLag);
+            replayWorker.start();
         }
-    }
 
-    private void replay() {
-        timer.cancel();
-        timer.purge();
+        if (updateParallelism > 1 && tickIsolation != null) {
+            log.warn("Parallel updates disabled: all updates of a tick are executed in a single transaction.");
+        } else if (updateParallelism > 1 && connectionFactory != null && parallelUpdater == null) {
+            // note: worker connections are kept for subsequent runs
+            parallelUpdater = new ParallelUpdater(continuousUpdates.keySet(), updateFootprints, updateParallelism, connectionFactory, connection, this::execute);
+            log.info("Continuous updates executed in {} stage(s): {}.", parallelUpdater.getStages().size(), parallelUpdater.getStages());
+        }
 
-        // TODO put all formatting to separate classes
+        if (headless) return; // ticks are triggered by runHeadless()
 
-        String timestamp = String.format("# end of run: %1$tFT%1$tT%1$tz\n", Calendar.getInstance());
+        scheduler = new TickScheduler(timeSlotDuration, overrunPolicy, (lateness, skipped) -> {
+            tickLateness = lateness;
+            tickSkipped = skipped;
+            callTransition();
+        });
 
-        try {
-            Writer w = new FileWriter(faultFilename, true);
+        scheduler.start();
+    }
 
-            StringBuilder str = new StringBuilder();
-            for (String f : queries.keySet()) {
-                str.append(String.format("\t\"%s\"", f));
+    private void update() {
+        long before = System.nanoTime();
+        if (tickIsolation != null) {
+            connection.begin(tickIsolation);
+
+            try {
+                for (String name : continuousUpdates.keySet()) execute(name, connection);
+                connection.commit();
+            } finally {
+                rollback(connection);
             }
-            w.append(String.format("# \"iteration\"%s\n", str.toString()));
+        } else if (parallelUpdater != null) {
+            parallelUpdater.execute();
+        } else {
+            for (String name : continuousUpdates.keySet()) execute(name, connection);
+        }
+        long after = System.nanoTime();
 
-            RDFFormat dumpFormat = null;
-            if (dumpPattern != null) {
-                FileUtils.makePath(dumpPattern);
-                dumpFormat = Rio.getParserFormatForFileName(dumpPattern).orElse(RDFFormat.TRIG);
-            }
+        tickLatency.record(after - before);
 
-            replayConnection.clear();
+        long t = TimeUnit.NANOSECONDS.toMillis(after - before);
+        updateHistory.timeIncremented(t);
+        interactionHistory.timeIncremented(t);
+        for (History h : tickListeners) h.timeIncremented(t);
 
-            // replays updates and submits queries at each timestamp
-            SPARQLResultsCSVWriter csvWriter = null;
-            for (int iteration = 0; iteration < updateHistory.size(); iteration++) {
-                try {
-                    UpdateHistory.UpdateSequence cs = updateHistory.get(iteration);
-
-                    log.info("Replaying iteration {}...", iteration);
-
-                    int insertions = 0, deletions = 0;
-                    for (UpdateHistory.Update u : cs) {
-                        if (u.getOperation().equals(UpdateHistory.UpdateOperation.INSERT)) {
-                            replayConnection.add(u.getStatement());
-                            insertions++;
-                        } else if (u.getOperation().equals(UpdateHistory.UpdateOperation.DELETE)) {
-                            replayConnection.remove(u.getStatement());
-                            deletions++;
-                        }
-                    }
+        if (parallelReplay != null) parallelReplay.iterationClosed();
+        if (replayWorker != null) replayWorker.iterationClosed();
 
-                    log.info("Done {} insertions, {} deletions.", insertions, deletions);
+        boolean overrun = !headless && t > timeSlotDuration;
+        interactionHistory.tickScheduled(TimeUnit.NANOSECONDS.toMillis(tickLateness), overrun, tickSkipped);
 
-                    if (dumpFormat != null) {
-                        String dumpFilename = String.format(dumpPattern, iteration);
-                        try {
-                            Writer dumpWriter = new FileWriter(dumpFilename);
-                            replayConnection.export(Rio.createWriter(dumpFormat, dumpWriter));
+        if (overrun) {
+            log.warn("updates took more than timeslot duration ({} ms).", t);
+        }
+    }
 
-                            log.info("Dumped dataset to {}.", dumpFilename);
-                        } catch (IOException e) {
-                            e.printStackTrace(); // TODO clean error handling
-                        }
-                    }
+    private void execute(String name, RepositoryConnection con) {
+        long before = System.nanoTime();
 
-                    str = new StringBuilder();
-                    for (TupleQuery q : queries.values()) {
-                        long before = System.currentTimeMillis();
+        if (con.isActive()) {
+            continuousUpdates.get(name).execute(con); // tick transaction
+        } else {
+            con.begin();
 
-                        TupleQueryResult result = q.evaluate();
+            try {
+                continuousUpdates.get(name).execute(con);
+                con.commit();
+            } finally {
+                rollback(con);
+            }
+        }
 
-                        if(csvWriter == null) {
-                            csvWriter = new SPARQLResultsCSVWriter(w);
-                            csvWriter.startQueryResult(result.getBindingNames());
-                        }
+        updateLatencies.get(name).record(System.nanoTime() - before);
+    }
 
-                        for(BindingSet bs : result) {
-                            csvWriter.handleSolution(bs);
-                        }
+    /**
+     * Rolls back the transaction of the connection, if it was not committed.
+     */
+    private void rollback(RepositoryConnection con) {
+        if (!con.isActive()) return;
 
+        con.rollback();
+        if (rollbackListener != null) rollbackListener.run();
+    }
+
+    private void replay() {
+        if (scheduler != null) {
+            scheduler.stop();
+
+            log.info("{} overrun(s), {} timeslot(s) skipped during run.", scheduler.getOverruns(), scheduler.getSkipped());
 
-                        long after = System.currentTimeMillis();
+            scheduler = null;
+        }
+
+        String timestamp = String.format("# end of run: %1$tFT%1$tT%1$tz\n", Calendar.getInstance());
 
-                        log.info("Executed query in {} ms.", after - before); // TODO sum
+        try {
+            try {
+                if (parallelReplay != null) {
+                    try {
+                        parallelReplay.finish();
+                    } finally {
+                        parallelReplay = null;
                     }
+                } else if (replayWorker != null) {
+                    // most iterations were already replayed during the run
+                    replayWorker.finish();
+                    replayWorker = null;
+                } else {
+                    replayer.reset();
 
-                } catch (Exception e) {
-                    // TODO why is there randomly a NullPointerException here?
-                    // TODO maybe because of remaining updates still running on the same repository?
-                    e.printStackTrace(); // TODO clean error handling
+                    // replays updates and submits queries at each timestamp
+                    for (int iteration = 0; iteration < updateHistory.size(); iteration++) {
+                        List<BindingSet> solutions = replayer.replay(iteration);
+                        faultWriter.write(replayer.getBindingNames(), solutions);
+                    }
                 }
+            } catch (RuntimeException e) {
+                // note: results and statistics are still written, the engine must be ready for the next run
+                log.error("Replay failed, query results are incomplete.", e);
             }
 
-            csvWriter.endQueryResult();
-            w.append(timestamp);
-            w.append("\n\n");
-            w.close();
+            faultWriter.close(timestamp);
         } catch (IOException e) {
             e.printStackTrace(); // TODO clean error handling
         }
@@ -372,12 +677,32 @@ public class SimulationEngine {
         } catch (IOException e) {
             e.printStackTrace();
         }
+
+        try {
+            Writer w = new FileWriter(updateFilename, true);
+            writeUpdateStatistics(w);
+            w.append(timestamp);
+            w.append("\n\n");
+            w.close();
+
+            log.info("Stored update times to {}.", updateFilename);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static long rate(long iterations, long millis) {
+        return millis > 0 ? iterations * 1000 / millis : iterations;
     }
 
     private void clean() {
+        connection.clear(); // note: must be done before histories are cleared
         updateHistory.clear();
         interactionHistory.clear();
         replayConnection.clear();
+
+        for (LatencyHistogram h : updateLatencies.values()) h.clear();
+        tickLatency.clear();
     }
 
 }
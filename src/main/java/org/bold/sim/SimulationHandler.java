@@ -1,16 +1,26 @@
 package org.bold.sim;
 
+import org.bold.http.BatchHandler;
+import org.bold.http.ConnectionPool;
+import org.bold.http.ConnectorOptions;
 import org.bold.http.GraphHandler;
+import org.bold.http.GraphIndex;
 import org.bold.http.GraphStoreHandler;
+import org.bold.http.GroupCommit;
 import org.bold.http.LDPHandler;
+import org.bold.http.RepresentationCache;
+import org.bold.http.SparqlHandler;
+import org.bold.http.TransactionalListener;
 import org.bold.http.WebSocketHandler;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.server.handler.ResourceHandler;
 import org.eclipse.jetty.util.resource.Resource;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.rdf4j.repository.sail.SailRepository;
 import org.eclipse.rdf4j.repository.sail.SailRepositoryConnection;
+import org.eclipse.rdf4j.sail.NotifyingSail;
 import org.eclipse.rdf4j.sail.NotifyingSailConnection;
 import org.eclipse.rdf4j.sail.memory.MemoryStore;
 import org.slf4j.Logger;
@@ -22,7 +32,6 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.net.InetSocketAddress;
 
 /**
  * High-level handler providing an interface to agents for managing simulations.
@@ -33,8 +42,20 @@ public class SimulationHandler extends AbstractHandler {
 
     public static final String SIMULATION_RESOURCE_TARGET = "/sim";
 
+    public static final String STATISTICS_TARGET = "/stats";
+
+    public static final String CONNECTION_STATISTICS_TARGET = "/stats/connections";
+
+    public static final String BATCH_TARGET = "/batch";
+
+    public static final String SPARQL_TARGET = "/sparql";
+
     public static final String PUBLIC_RESOURCE_FOLDER = "doc"; // TODO make it relative to distribution, not working directory
 
+    private static final int MIN_THREADS = 8;
+
+    private static final int SC_TOO_MANY_REQUESTS = 429; // note: not defined in Servlet 3.1
+
     private String resultFile;
 
     private final Logger log = LoggerFactory.getLogger(SimulationHandler.class);
@@ -45,14 +66,42 @@ public class SimulationHandler extends AbstractHandler {
 
     private final GraphHandler graphHandler;
 
+    private final GraphHandler batchHandler;
+
+    private SparqlHandler sparqlHandler = null;
+
+    private AdmissionControl admission = null;
+
+    private String agentHeader = null;
+
+    private final InteractionHistory interactions = new InteractionHistory();
+
+    private final ConnectionPool connections;
+
+    private final GroupCommit writes;
+
+    private final GraphIndex index = new GraphIndex();
+
     private final WebSocketHandler webSocketHandler;
 
     private final SimulationEngine engine;
 
-    public SimulationHandler(int port, String protocol, boolean webSocket, String resultFile) throws Exception {
+    /**
+     * @param threads maximum number of request threads
+     * @param connections maximum number of repository connections leased by request threads
+     * @param cacheSize maximum size of cached graph representations (in bytes), 0 to disable caching
+     * @param connector configuration of the connector agents connect to
+     */
+    public SimulationHandler(int port, String protocol, boolean webSocket, String resultFile, int threads, int connections, long cacheSize, ConnectorOptions connector) throws Exception {
         this.resultFile = resultFile;
-        
-        server = new Server(InetSocketAddress.createUnresolved("127.0.1.1", port));
+
+        QueuedThreadPool threadPool = new QueuedThreadPool(threads, Math.min(MIN_THREADS, threads));
+        threadPool.setName("bold-http");
+
+        server = new Server(threadPool);
+
+        server.addConnector(connector.createConnector(server, "127.0.1.1", port));
+
         server.setHandler(this);
         server.start();
 
@@ -63,16 +112,8 @@ public class SimulationHandler extends AbstractHandler {
         staticHandler.setWelcomeFiles(new String[] { "index.html" });
         staticHandler.doStart();
 
-        MemoryStore store = new MemoryStore();
-        SailRepository  repo;
-        switch(protocol) {
-            case "ldp":
-                repo = new SailRepository(new LDPInferencer(store));
-                break;
-            default:
-                repo = new SailRepository(store);
-                break;
-        }
+        SailRepository repo = createRepository(protocol);
+        ((NotifyingSail) repo.getSail()).addSailChangedListener(index);
 
         if(webSocket) {
             webSocketHandler = new WebSocketHandler(port + 1, repo);
@@ -82,41 +123,139 @@ public class SimulationHandler extends AbstractHandler {
         }
 
         UpdateHistory history = new UpdateHistory(); // TODO finer-grained reporting: distinct histories
-        SailRepositoryConnection engineConnection = repo.getConnection();
-        SailRepositoryConnection handlerConnection = repo.getConnection();
-        ((NotifyingSailConnection) engineConnection.getSailConnection()).addConnectionListener(history);
-        ((NotifyingSailConnection) handlerConnection.getSailConnection()).addConnectionListener(history);
-        if(webSocket) {
-            ((NotifyingSailConnection) engineConnection.getSailConnection()).addConnectionListener(webSocketHandler);
-            ((NotifyingSailConnection) handlerConnection.getSailConnection()).addConnectionListener(webSocketHandler);
-        }
+        // note: history and web socket clients are notified of committed changes only (rolled back writes are not replayed)
+        TransactionalListener committed = webSocketHandler == null
+                ? new TransactionalListener(history)
+                : new TransactionalListener(history, webSocketHandler);
+        ((NotifyingSail) repo.getSail()).addSailChangedListener(committed);
+        Runnable discard = () -> {
+            index.discard();
+            committed.discard();
+        };
 
-        InteractionHistory interactions = new InteractionHistory();
+        SailRepositoryConnection engineConnection = openConnection(repo, committed);
+        this.connections = new ConnectionPool(() -> openConnection(repo, committed), connections).setRollbackListener(discard);
+        this.writes = new GroupCommit(openConnection(repo, committed)).setRollbackListener(discard);
 
         engine = new SimulationEngine(server.getURI().toString(), engineConnection, history, interactions, resultFile);
+        engine.setConnectionFactory(() -> openConnection(repo, committed));
+        engine.setRollbackListener(discard);
+
+        RepresentationCache cache = new RepresentationCache(cacheSize);
 
-        // TODO have a handler thread pool (see org.eclipse.jetty.util.thread.QueuedThreadPool)
-        // TODO manage RepositoryConnections for all individual threads
         // note: server's base URI is set only after server starts
         switch(protocol) {
             case "ldp":
-                graphHandler = new LDPHandler(server.getURI(), handlerConnection);
+                graphHandler = new LDPHandler(server.getURI(), this.connections, writes, index, cache);
                 break;
             default: 
-                graphHandler = new GraphStoreHandler(server.getURI(), handlerConnection);
+                graphHandler = new GraphStoreHandler(server.getURI(), this.connections, writes, index, cache);
                 break;
         }
         graphHandler.addGraphListener(interactions);
 
+        batchHandler = new BatchHandler(server.getURI(), this.connections, index, protocol.equals("ldp"));
+        batchHandler.addGraphListener(interactions);
+
         log.info("Server started on port {}. Waiting for command on resource {}...", port, SIMULATION_RESOURCE_TARGET);
     }
 
+    /**
+     * Creates the in-memory store underlying simulations.
+     *
+     * @param protocol protocol exposed to agents ("ldp" adds LDP inference to the store)
+     */
+    static SailRepository createRepository(String protocol) {
+        MemoryStore store = new MemoryStore();
+        switch(protocol) {
+            case "ldp":
+                return new SailRepository(new LDPInferencer(store));
+            default:
+                return new SailRepository(store);
+        }
+    }
+
+    /**
+     * Opens a connection to the simulation store, notifying changes to the graph index and, once committed, to the update
+     * history (and to web socket clients).
+     */
+    private SailRepositoryConnection openConnection(SailRepository repo, TransactionalListener committed) {
+        SailRepositoryConnection con = repo.getConnection();
+
+        ((NotifyingSailConnection) con.getSailConnection()).addConnectionListener(committed);
+        ((NotifyingSailConnection) con.getSailConnection()).addConnectionListener(index);
+
+        return con;
+    }
+
+    /**
+     * Exposes a read-only SPARQL endpoint over the simulation store while simulations run (see {@link SparqlHandler}).
+     *
+     * @param timeout maximum evaluation time of a query (in s), 0 for no limit
+     * @param maxResults maximum number of results sent to agents
+     */
+    public SimulationHandler enableSparqlEndpoint(int timeout, int maxResults) {
+        sparqlHandler = new SparqlHandler(server.getURI().toString(), connections, timeout, maxResults);
+        sparqlHandler.addQueryListener(interactions);
+
+        log.info("SPARQL endpoint available on resource {}.", SPARQL_TARGET);
+
+        return this;
+    }
+
+    /**
+     * Configures how agents' writes to graphs are grouped in transactions (see {@link GroupCommit}).
+     *
+     * @param window time to wait for other writes after the first write of a group (in ms)
+     * @param maxSize maximum number of writes committed together (1 to commit every write on its own)
+     */
+    public SimulationHandler configureGroupCommit(long window, int maxSize) {
+        writes.setWindow(window).setMaxSize(maxSize);
+
+        return this;
+    }
+
+    /**
+     * Serves large LDP containers by pages (see {@link LDPHandler#setPageSize(int)}), if agents interact via LDP.
+     *
+     * @param pageSize maximum number of containment triples per page
+     */
+    public SimulationHandler enableLdpPaging(int pageSize) {
+        if (graphHandler instanceof LDPHandler) {
+            ((LDPHandler) graphHandler).setPageSize(pageSize);
+            log.info("LDP containers served by pages of {} members.", pageSize);
+        }
+
+        return this;
+    }
+
+    /**
+     * Limits the load agents put on the simulation store while simulations run (see {@link AdmissionControl}).
+     * Rejected requests get 429 Too Many Requests (rate limit of the agent) or 503 Service Unavailable (too many
+     * concurrent requests), with a Retry-After header.
+     *
+     * @param rate sustained number of requests per second per agent (0 for no limit)
+     * @param burst number of requests an agent may send at once
+     * @param maxInFlight maximum number of requests processed concurrently (0 for no limit)
+     * @param agentHeader request header identifying agents (if absent, agents are identified by their address)
+     */
+    public SimulationHandler enableAdmissionControl(double rate, int burst, int maxInFlight, String agentHeader) {
+        this.admission = new AdmissionControl(rate, burst, maxInFlight, engine::getTimeSlotDuration);
+        this.agentHeader = agentHeader;
+
+        engine.addTickListener(admission);
+
+        return this;
+    }
+
     public SimulationEngine getSimulationEngine() {
         return engine;
     }
 
     public void terminate() throws Exception {
         server.stop();
+        writes.close();
+        connections.close();
     }
 
     @Override
@@ -124,6 +263,26 @@ public class SimulationHandler extends AbstractHandler {
         staticHandler.handle(target, baseRequest, request, response);
         if (baseRequest.isHandled()) return; // static resource was found
 
+        if (request.getMethod().equals("GET") && target.equals(CONNECTION_STATISTICS_TARGET)) {
+            // usage of the repository connection pool, available at any time
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType("text/tab-separated-values");
+            response.setCharacterEncoding("UTF-8");
+            connections.writeStatistics(response.getWriter());
+            baseRequest.setHandled(true);
+            return;
+        }
+
+        if (request.getMethod().equals("GET") && target.equals(STATISTICS_TARGET)) {
+            // execution times of continuous updates, available at any time
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType("text/tab-separated-values");
+            response.setCharacterEncoding("UTF-8");
+            engine.writeUpdateStatistics(response.getWriter());
+            baseRequest.setHandled(true);
+            return;
+        }
+
         switch (engine.getCurrentState()) {
             case EMPTY_STORE:
                 // only recognizes PUT /sim
@@ -138,7 +297,21 @@ public class SimulationHandler extends AbstractHandler {
                 break;
 
             case RUNNING:
-                graphHandler.handle(target, baseRequest, request, response);
+                // note: requests to the simulation resource (e.g. to stop the run) are always admitted
+                boolean controlled = admission != null && !target.equals(SIMULATION_RESOURCE_TARGET);
+                if (controlled && !admit(baseRequest, request, response)) break;
+
+                try {
+                    if (target.equals(BATCH_TARGET)) {
+                        batchHandler.handle(target, baseRequest, request, response);
+                    } else if (target.equals(SPARQL_TARGET) && sparqlHandler != null) {
+                        sparqlHandler.handle(target, baseRequest, request, response);
+                    } else {
+                        graphHandler.handle(target, baseRequest, request, response);
+                    }
+                } finally {
+                    if (controlled) admission.release();
+                }
                 break;
 
             default:
@@ -148,4 +321,27 @@ public class SimulationHandler extends AbstractHandler {
         }
     }
 
+    /**
+     * @return true if the request is admitted, false if it was rejected (and the response sent)
+     */
+    private boolean admit(Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String agent = agentHeader != null ? request.getHeader(agentHeader) : null;
+        if (agent == null) agent = request.getRemoteAddr();
+
+        AdmissionControl.Decision decision = admission.admit(agent);
+        if (decision == AdmissionControl.Decision.ADMITTED) {
+            interactions.requestAdmitted();
+            return true;
+        }
+
+        int status = decision == AdmissionControl.Decision.THROTTLED ? SC_TOO_MANY_REQUESTS : HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+        interactions.requestRejected(status);
+
+        response.setHeader("Retry-After", String.valueOf(admission.getRetryAfter(decision)));
+        response.sendError(status);
+        baseRequest.setHandled(true);
+
+        return false;
+    }
+
 }
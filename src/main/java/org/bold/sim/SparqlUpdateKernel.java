@@ -0,0 +1,36 @@
+package org.bold.sim;
+
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.Update;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Continuous update given as a SPARQL update string, prepared once per connection it is executed on.
+ */
+class SparqlUpdateKernel implements UpdateKernel {
+
+    private final String sparulString;
+
+    private final String baseURI;
+
+    private final Map<RepositoryConnection, Update> prepared = new ConcurrentHashMap<>();
+
+    /**
+     * @param con connection on which the update is first prepared (to report syntax errors at registration)
+     */
+    SparqlUpdateKernel(RepositoryConnection con, String sparulString, String baseURI) {
+        this.sparulString = sparulString;
+        this.baseURI = baseURI;
+
+        prepared.put(con, con.prepareUpdate(QueryLanguage.SPARQL, sparulString, baseURI));
+    }
+
+    @Override
+    public void execute(RepositoryConnection connection) {
+        prepared.computeIfAbsent(connection, con -> con.prepareUpdate(QueryLanguage.SPARQL, sparulString, baseURI)).execute();
+    }
+
+}
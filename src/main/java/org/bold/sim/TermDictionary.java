@@ -0,0 +1,85 @@
+package org.bold.sim;
+
+import org.eclipse.rdf4j.model.Value;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dictionary mapping RDF terms (IRIs, blank nodes, literals) to integer identifiers, shared by all timeslots of an
+ * {@link UpdateHistory}. Identifier 0 is reserved for the null value (e.g. the default graph).
+ *
+ * Terms are kept on heap until the history is cleared, even if changes are moved to a {@link ChangeLog}: the dictionary
+ * grows with every distinct term of a run (e.g. a new literal per iteration for each clock or sensor value).
+ *
+ * Terms are stored in fixed-size chunks that are never reallocated: encoding must be synchronized by the caller but
+ * decoding is lock-free, provided that identifiers were published to the decoding thread by synchronization on the same
+ * lock as encoding (e.g. by reading a closed update sequence from the history).
+ */
+class TermDictionary {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    private final Map<Value, Integer> ids = new HashMap<>();
+
+    private volatile Value[][] chunks = new Value[16][];
+
+    private int size = 1; // 0: null
+
+    private long chars = 0;
+
+    /**
+     * @return the identifier of the term, created if the term was not in the dictionary
+     */
+    int encode(Value v) {
+        if (v == null) return 0;
+
+        Integer id = ids.get(v);
+        if (id != null) return id;
+
+        id = size++;
+
+        int chunk = id / CHUNK_SIZE;
+        if (chunk >= chunks.length) {
+            Value[][] grown = new Value[chunks.length * 2][];
+            System.arraycopy(chunks, 0, grown, 0, chunks.length);
+            chunks = grown;
+        }
+        if (chunks[chunk] == null) chunks[chunk] = new Value[CHUNK_SIZE];
+
+        chunks[chunk][id % CHUNK_SIZE] = v;
+        ids.put(v, id);
+
+        chars += v.stringValue().length(); // note: literal datatypes and language tags are ignored
+
+        return id;
+    }
+
+    Value decode(int id) {
+        if (id == 0) return null;
+
+        return chunks[id / CHUNK_SIZE][id % CHUNK_SIZE];
+    }
+
+    int size() {
+        return size - 1;
+    }
+
+    /**
+     * Estimates the heap size of the dictionary, assuming compressed references: each term costs its characters (2 bytes
+     * each), a value object, a string and a hash map entry (~100 bytes), plus one reference in a chunk.
+     *
+     * @return an estimate of the heap size of the dictionary (in bytes)
+     */
+    long estimateBytes() {
+        return 2 * chars + (100l + 4l) * size();
+    }
+
+    void clear() {
+        ids.clear();
+        chunks = new Value[16][];
+        size = 1;
+        chars = 0;
+    }
+
+}
@@ -0,0 +1,157 @@
+package org.bold.sim;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the ticks of a simulation run on a dedicated thread. Deadlines are computed from {@link System#nanoTime()}
+ * (monotonic clock) relative to the start of the run, so that execution time of ticks does not make the schedule drift.
+ *
+ * When a tick takes longer than the period, the next deadline is chosen according to an {@link OverrunPolicy}.
+ */
+public class TickScheduler implements Runnable {
+
+    public enum OverrunPolicy {
+        /**
+         * late ticks are executed back-to-back until the original schedule is caught up (fixed rate)
+         */
+        CATCH_UP,
+        /**
+         * missed deadlines are dropped, next tick is executed at the next deadline of the original schedule
+         */
+        SKIP,
+        /**
+         * the overrunning timeslot is stretched, the whole schedule being shifted by the overrun
+         */
+        STRETCH
+    }
+
+    public interface Tick {
+
+        /**
+         * @param lateness time between deadline and actual start of the tick (in ns)
+         * @param skipped number of deadlines dropped before this tick (only with {@link OverrunPolicy#SKIP})
+         */
+        void execute(long lateness, int skipped);
+
+    }
+
+    private final Logger log = LoggerFactory.getLogger(TickScheduler.class);
+
+    private final long period;
+
+    private final OverrunPolicy policy;
+
+    private final Tick tick;
+
+    private volatile boolean running = false;
+
+    private Thread thread = null;
+
+    private long overruns = 0;
+
+    private long skipped = 0;
+
+    /**
+     * @param period duration of a timeslot (in ms)
+     * @param policy behavior of the scheduler if a tick overruns its timeslot
+     * @param tick task to execute at every tick
+     */
+    public TickScheduler(long period, OverrunPolicy policy, Tick tick) {
+        this.period = TimeUnit.MILLISECONDS.toNanos(period);
+        this.policy = policy;
+        this.tick = tick;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+
+        running = true;
+        overruns = 0;
+        skipped = 0;
+
+        thread = new Thread(this, "bold-tick-scheduler");
+        thread.start();
+    }
+
+    /**
+     * Stops the scheduler after the current tick. May be called from within a tick.
+     */
+    public synchronized void stop() {
+        running = false;
+
+        if (thread != null && thread != Thread.currentThread()) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        thread = null;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return number of ticks that took longer than the period since the scheduler started
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * @return number of deadlines dropped since the scheduler started
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    @Override
+    public void run() {
+        long deadline = System.nanoTime();
+
+        while (running) {
+            long now = System.nanoTime();
+
+            if (now < deadline) {
+                LockSupport.parkNanos(deadline - now);
+                continue; // note: parkNanos may return spuriously
+            }
+
+            int missed = 0;
+            if (policy == OverrunPolicy.SKIP && now - deadline >= period) {
+                missed = (int) ((now - deadline) / period);
+                deadline += missed * period;
+                skipped += missed;
+            }
+
+            try {
+                tick.execute(now - deadline, missed);
+            } catch (RuntimeException e) {
+                log.error("Tick failed.", e); // the schedule goes on
+            }
+
+            long end = System.nanoTime();
+            boolean overrun = end - deadline > period;
+
+            if (overrun) {
+                overruns++;
+                log.warn("Tick overran its timeslot by {} ms ({} overrun(s) so far).", TimeUnit.NANOSECONDS.toMillis(end - deadline - period), overruns);
+            }
+
+            if (policy == OverrunPolicy.STRETCH && overrun) {
+                deadline = end;
+            } else {
+                deadline += period;
+            }
+        }
+    }
+
+}
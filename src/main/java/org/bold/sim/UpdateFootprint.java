@@ -0,0 +1,65 @@
+package org.bold.sim;
+
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.algebra.Modify;
+import org.eclipse.rdf4j.query.algebra.UpdateExpr;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
+
+/**
+ * Read and write sets of a SPARQL update, as triple patterns (see {@link QueryFootprint}): patterns of the WHERE clause
+ * are read, patterns of DELETE/INSERT templates are written. Other operations (INSERT DATA, CLEAR, LOAD...) are assumed
+ * to read and write all statements.
+ *
+ * Two updates that do not conflict can be executed concurrently, in any order, with the same result.
+ */
+class UpdateFootprint {
+
+    private final QueryFootprint reads = new QueryFootprint();
+
+    private final QueryFootprint writes = new QueryFootprint();
+
+    /**
+     * @return the footprint of the given update (reading and writing all statements if the update cannot be parsed)
+     */
+    static UpdateFootprint of(String sparulString, String baseURI) {
+        UpdateFootprint footprint = new UpdateFootprint();
+
+        try {
+            for (UpdateExpr expr : QueryParserUtil.parseUpdate(QueryLanguage.SPARQL, sparulString, baseURI).getUpdateExprs()) {
+                if (expr instanceof Modify) {
+                    Modify m = (Modify) expr;
+                    if (m.getDeleteExpr() != null) footprint.writes.add(m.getDeleteExpr());
+                    if (m.getInsertExpr() != null) footprint.writes.add(m.getInsertExpr());
+                    if (m.getWhereExpr() != null) footprint.reads.add(m.getWhereExpr());
+                } else {
+                    footprint.reads.addAll();
+                    footprint.writes.addAll();
+                }
+            }
+        } catch (Exception e) {
+            footprint.reads.addAll();
+            footprint.writes.addAll();
+        }
+
+        return footprint;
+    }
+
+    /**
+     * Two updates conflict if one writes statements the other reads or writes, or if both draw random numbers (from
+     * the same generator, see {@link org.bold.sparql.RandomFunction}).
+     *
+     * @param other footprint of another update (null if unknown, e.g. for an {@link UpdateKernel})
+     */
+    boolean conflicts(UpdateFootprint other) {
+        if (other == null) return true;
+
+        return writes.overlaps(other.reads) || reads.overlaps(other.writes) || writes.overlaps(other.writes)
+                || (reads.usesRandom() && other.reads.usesRandom());
+    }
+
+    @Override
+    public String toString() {
+        return "reads " + reads + ", writes " + writes;
+    }
+
+}
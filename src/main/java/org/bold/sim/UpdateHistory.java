@@ -1,15 +1,38 @@
 package org.bold.sim;
 
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.sail.SailConnectionListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Stack;
 
+/**
+ * Records changes of the RDF dataset, grouped by timeslot. Within a timeslot, only net changes are kept: opposite
+ * operations on the same statement cancel out and repeated operations are ignored (which assumes that the store notifies
+ * listeners only of actual changes, i.e. insertions of absent statements and deletions of present statements).
+ *
+ * Once a timeslot is closed, its changes are dictionary-encoded (see {@link TermDictionary}) to limit the memory
+ * footprint of long runs. If a {@link ChangeLog} is set, encoded changes are moved to disk and read back from there.
+ */
 class UpdateHistory extends Stack<UpdateHistory.UpdateSequence> implements History, SailConnectionListener {
 
     enum UpdateOperation { INSERT, DELETE }
 
+    private static final UpdateOperation[] OPERATIONS = UpdateOperation.values();
+
+    static final int TUPLE_SIZE = 5;
+
     abstract class Update {
 
         private final Statement statement;
@@ -52,33 +75,250 @@ class UpdateHistory extends Stack<UpdateHistory.UpdateSequence> implements Histo
 
     }
 
-    class UpdateSequence extends ArrayList<Update> {}
+    /**
+     * Changes of a timeslot. While the timeslot is open, changes are kept as statements (to compact them as they
+     * arrive). Once closed, changes are encoded as (op, s, p, o, g) tuples of term identifiers, in a single array (or
+     * in a change log segment, if spilled).
+     */
+    class UpdateSequence implements Iterable<Update> {
+
+        private Map<Statement, Update> updates = new LinkedHashMap<>();
+
+        private int[] encoded = null;
+
+        private ByteBuffer spilled = null;
+
+        void record(Update u) {
+            Update previous = updates.get(u.getStatement());
+
+            if (previous == null) {
+                updates.put(u.getStatement(), u);
+            } else if (previous.getOperation() != u.getOperation()) {
+                updates.remove(u.getStatement()); // e.g. statement inserted then deleted in the same timeslot
+            } // else: repeated operation
+        }
+
+        void close() {
+            int[] tuples = new int[updates.size() * TUPLE_SIZE];
+
+            int i = 0;
+            for (Update u : updates.values()) {
+                Statement st = u.getStatement();
+                tuples[i++] = u.getOperation().ordinal();
+                tuples[i++] = dictionary.encode(st.getSubject());
+                tuples[i++] = dictionary.encode(st.getPredicate());
+                tuples[i++] = dictionary.encode(st.getObject());
+                tuples[i++] = dictionary.encode(st.getContext());
+            }
+
+            encoded = tuples;
+            updates = null;
+        }
+
+        void spill(ByteBuffer tuples) {
+            spilled = tuples;
+            encoded = null;
+            updates = null;
+        }
+
+        public int size() {
+            if (spilled != null) return spilled.limit() / 4 / TUPLE_SIZE;
+
+            return encoded != null ? encoded.length / TUPLE_SIZE : updates.size();
+        }
+
+        /**
+         * @return heap size of the encoded changes (in bytes), 0 if the sequence is still open or spilled
+         */
+        long getEncodedBytes() {
+            return encoded != null ? 16 + 4l * encoded.length : 0; // array header + ints
+        }
+
+        @Override
+        public Iterator<Update> iterator() {
+            if (updates != null) return updates.values().iterator();
+
+            final int[] tuples = encoded;
+            final ByteBuffer buffer = spilled;
+            final int length = size() * TUPLE_SIZE;
+
+            return new Iterator<Update>() {
+
+                private int i = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return i < length;
+                }
+
+                @Override
+                public Update next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+
+                    UpdateOperation op = OPERATIONS[get(i)];
+                    Resource s = (Resource) dictionary.decode(get(i + 1));
+                    IRI p = (IRI) dictionary.decode(get(i + 2));
+                    Value o = dictionary.decode(get(i + 3));
+                    Resource g = (Resource) dictionary.decode(get(i + 4));
+                    i += TUPLE_SIZE;
+
+                    Statement st = g == null
+                            ? Vocabulary.VALUE_FACTORY.createStatement(s, p, o)
+                            : Vocabulary.VALUE_FACTORY.createStatement(s, p, o, g);
+
+                    return op == UpdateOperation.INSERT ? new Insert(st) : new Delete(st);
+                }
+
+                private int get(int k) {
+                    // note: absolute reads only, the buffer may be shared with the log writer
+                    return tuples != null ? tuples[k] : buffer.getInt(4 * k);
+                }
+
+            };
+        }
+
+    }
+
+    private final Logger log = LoggerFactory.getLogger(UpdateHistory.class);
+
+    private final TermDictionary dictionary = new TermDictionary();
+
+    private ChangeLog changeLog = null;
+
+    private long recorded = 0;
 
     public UpdateHistory() {
         this.clear();
     }
 
+    // note: updates may be recorded concurrently while closed sequences are replayed (see ReplayWorker)
+
+    /**
+     * Sets the log to which closed sequences are moved (null to keep them in memory). The history should be empty.
+     */
+    public synchronized void setChangeLog(ChangeLog log) {
+        this.changeLog = log;
+    }
+
+    /**
+     * Clears the history and loads all sequences found in a change log directory (e.g. written by a crashed run).
+     * Sequences are left on disk.
+     */
+    public synchronized void recover(File directory) throws IOException {
+        clear();
+
+        ChangeLog.read(directory, new ChangeLog.Handler() {
+            @Override
+            public void term(int id, Value v) {
+                if (dictionary.encode(v) != id) {
+                    log.warn("Inconsistent term identifier in change log: {} ({}).", id, v);
+                }
+            }
+
+            @Override
+            public void sequence(int iteration, ByteBuffer tuples) {
+                if (iteration != size() - 1) {
+                    log.warn("Missing iteration(s) in change log before iteration {}.", iteration);
+                }
+
+                peek().spill(tuples);
+                add(new UpdateSequence());
+            }
+        });
+
+        log.info("Recovered {} iteration(s) from change log {}.", size() - 1, directory);
+    }
+
     @Override
-    public void timeIncremented(Long updateTime) {
+    public synchronized void timeIncremented(Long updateTime) {
+        UpdateSequence cs = this.peek();
+        int terms = dictionary.size();
+
+        cs.close();
+
+        if (changeLog != null) {
+            try {
+                for (int id = terms + 1; id <= dictionary.size(); id++) {
+                    changeLog.appendTerm(id, dictionary.decode(id));
+                }
+
+                cs.spill(changeLog.appendSequence(this.size() - 1, cs.encoded));
+            } catch (IOException e) {
+                log.error("Could not write to change log, changes kept in memory.", e);
+                changeLog = null;
+            }
+        }
+
         this.add(new UpdateSequence());
     }
 
     @Override
-    public void clear() {
+    public synchronized void clear() {
         super.clear();
         this.add(new UpdateSequence());
+        recorded = 0;
+        dictionary.clear();
+        if (changeLog != null) changeLog.clear();
     }
 
     @Override
-    public void statementAdded(Statement st) {
-        this.peek().add(new Insert(st));
+    public synchronized void statementAdded(Statement st) {
+        this.peek().record(new Insert(st));
+        recorded++;
     }
 
     @Override
-    public void statementRemoved(Statement st) {
-        this.peek().add(new Delete(st));
+    public synchronized void statementRemoved(Statement st) {
+        this.peek().record(new Delete(st));
+        recorded++;
+    }
+
+    /**
+     * @return number of change events notified since the history was cleared
+     */
+    public synchronized long getRecordedCount() {
+        return recorded;
+    }
+
+    /**
+     * @return number of (net) changes kept in the history
+     */
+    public synchronized long getChangeCount() {
+        long changes = 0;
+        for (UpdateSequence cs : this) changes += cs.size();
+
+        return changes;
+    }
+
+    /**
+     * Estimates the heap size of closed sequences, including the term dictionary they share.
+     *
+     * @return average size of a change (in bytes), 0 if no change was recorded
+     */
+    public synchronized long getBytesPerChange() {
+        long bytes = dictionary.estimateBytes(), changes = 0;
+        for (UpdateSequence cs : this) {
+            if (cs.encoded != null) {
+                bytes += cs.getEncodedBytes();
+                changes += cs.size();
+            }
+        }
+
+        return changes > 0 ? bytes / changes : 0;
+    }
+
+    /**
+     * @return number of bytes written to the change log, 0 if changes are kept in memory
+     */
+    public synchronized long getLogSize() {
+        return changeLog != null ? changeLog.size() : 0;
     }
 
-    // TODO ignore statements that were first inserted and then removed in the same time slot
+    /**
+     * @return number of distinct RDF terms in recorded changes
+     */
+    public synchronized int getTermCount() {
+        return dictionary.size();
+    }
 
 }
@@ -0,0 +1,17 @@
+package org.bold.sim;
+
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+
+/**
+ * Continuous update executed at every tick of a simulation run, like a SPARQL update registered with
+ * {@link SimulationEngine#registerContinuousUpdate(String, String)}, but coded in Java against the connection API (which
+ * avoids parsing and evaluating a query at every tick).
+ *
+ * Each execution takes place in a transaction of its own. Kernels must have a public no-argument constructor to be
+ * registered from a task's configuration (key bold.runtime.kernel.[name]).
+ */
+public interface UpdateKernel {
+
+    void execute(RepositoryConnection connection);
+
+}
@@ -22,6 +22,26 @@ public class Vocabulary {
 
     public static final IRI RANDOM_SEED = VALUE_FACTORY.createIRI(NS, "randomSeed");
 
+    public static final IRI CURRENT_ITERATION = VALUE_FACTORY.createIRI(NS, "currentIteration");
+
+    public static final String TIME_NS = "http://www.w3.org/2006/time#";
+
+    public static final IRI IN_XSD_DATE_TIME_STAMP = VALUE_FACTORY.createIRI(TIME_NS, "inXSDDateTimeStamp");
+
+    public static final IRI IN_DATE_TIME = VALUE_FACTORY.createIRI(TIME_NS, "inDateTime");
+
+    public static final IRI YEAR = VALUE_FACTORY.createIRI(TIME_NS, "year");
+
+    public static final IRI MONTH = VALUE_FACTORY.createIRI(TIME_NS, "month");
+
+    public static final IRI DAY = VALUE_FACTORY.createIRI(TIME_NS, "day");
+
+    public static final IRI HOUR = VALUE_FACTORY.createIRI(TIME_NS, "hour");
+
+    public static final IRI MINUTE = VALUE_FACTORY.createIRI(TIME_NS, "minute");
+
+    public static final IRI SECOND = VALUE_FACTORY.createIRI(TIME_NS, "second");
+
     public static void registerFunctions() {
         FunctionRegistry.getInstance().add(new ComputeExponentialCDFFunction());
         FunctionRegistry.getInstance().add(new ComputeNormalCDFFunction());
@@ -0,0 +1,44 @@
+package org.bold.http;
+
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultFormat;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ContentNegotiationTest {
+
+    @Test
+    public void testWeights() {
+        String accept = "text/turtle;q=0.5, application/n-triples, */*;q=0.1";
+        assertEquals(RDFFormat.NTRIPLES, ContentNegotiation.getWriterFormat(accept, RDFFormat.TURTLE, false));
+
+        accept = "application/x-binary-rdf;q=0, text/*;q=0.8";
+        assertEquals(RDFFormat.TURTLE, ContentNegotiation.getWriterFormat(accept, RDFFormat.TURTLE, false));
+
+        assertEquals(RDFFormat.TURTLE, ContentNegotiation.getWriterFormat(null, RDFFormat.TURTLE, false));
+        assertNull(ContentNegotiation.getWriterFormat("image/png", RDFFormat.TURTLE, false));
+    }
+
+    @Test
+    public void testResultFormats() {
+        List<TupleQueryResultFormat> candidates = Arrays.asList(TupleQueryResultFormat.JSON, TupleQueryResultFormat.CSV);
+
+        String accept = "application/sparql-results+json;q=0.5, text/csv";
+        assertEquals(TupleQueryResultFormat.CSV, ContentNegotiation.getFormat(accept, candidates, TupleQueryResultFormat.JSON));
+
+        assertEquals(TupleQueryResultFormat.JSON, ContentNegotiation.getFormat("*/*", candidates, TupleQueryResultFormat.JSON));
+        assertNull(ContentNegotiation.getFormat("image/png", candidates, TupleQueryResultFormat.JSON));
+    }
+
+    @Test
+    public void testParameters() {
+        assertEquals(RDFFormat.NQUADS, ContentNegotiation.getParserFormat("application/n-quads; charset=UTF-8", RDFFormat.TURTLE));
+        assertEquals(RDFFormat.BINARY, ContentNegotiation.getParserFormat("application/x-binary-rdf", RDFFormat.TURTLE));
+    }
+
+}
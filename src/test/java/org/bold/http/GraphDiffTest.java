@@ -0,0 +1,60 @@
+package org.bold.http;
+
+import org.bold.sim.Vocabulary;
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GraphDiffTest {
+
+    private static final String BASE = "http://example.org/";
+
+    private static final IRI G = Vocabulary.VALUE_FACTORY.createIRI(BASE, "g");
+
+    private static final IRI LIGHT = Vocabulary.VALUE_FACTORY.createIRI(BASE, "light");
+
+    private static final IRI LOCATION = Vocabulary.VALUE_FACTORY.createIRI(BASE, "location");
+
+    @Test
+    public void testChangedValue() {
+        Model current = new LinkedHashModel();
+        current.add(LIGHT, RDF.TYPE, LIGHT, G);
+        current.add(LIGHT, RDF.VALUE, Vocabulary.VALUE_FACTORY.createLiteral(false), G);
+
+        Model proposed = new LinkedHashModel();
+        proposed.add(LIGHT, RDF.TYPE, LIGHT);
+        proposed.add(LIGHT, RDF.VALUE, Vocabulary.VALUE_FACTORY.createLiteral(true));
+
+        GraphDiff diff = new GraphDiff(current, proposed, G);
+
+        assertEquals(1, diff.getRemovals().size());
+        assertEquals(1, diff.getAdditions().size());
+        assertTrue(diff.getAdditions().contains(LIGHT, RDF.VALUE, Vocabulary.VALUE_FACTORY.createLiteral(true), G));
+    }
+
+    @Test
+    public void testIsomorphicBlankNodes() {
+        BNode b1 = Vocabulary.VALUE_FACTORY.createBNode();
+        BNode b2 = Vocabulary.VALUE_FACTORY.createBNode();
+
+        Model current = new LinkedHashModel();
+        current.add(LIGHT, LOCATION, b1, G);
+        current.add(b1, RDF.VALUE, Vocabulary.VALUE_FACTORY.createLiteral(1), G);
+
+        Model proposed = new LinkedHashModel();
+        proposed.add(LIGHT, LOCATION, b2);
+        proposed.add(b2, RDF.VALUE, Vocabulary.VALUE_FACTORY.createLiteral(1));
+
+        GraphDiff diff = new GraphDiff(current, proposed, G);
+
+        assertTrue(diff.getRemovals().isEmpty());
+        assertTrue(diff.getAdditions().isEmpty());
+    }
+
+}
@@ -0,0 +1,125 @@
+package org.bold.http;
+
+import org.bold.sim.Vocabulary;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.vocabulary.LDP;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.SortedMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GraphIndexTest {
+
+    private static final IRI C = Vocabulary.VALUE_FACTORY.createIRI("http://example.org/c");
+
+    private static Statement contains(String member) {
+        IRI m = Vocabulary.VALUE_FACTORY.createIRI("http://example.org/c/" + member);
+        return Vocabulary.VALUE_FACTORY.createStatement(C, LDP.CONTAINS, m, C);
+    }
+
+    @Test
+    public void testContainmentPages() {
+        GraphIndex index = new GraphIndex();
+        index.statementAdded(contains("z"));
+        index.statementAdded(contains("a"));
+        index.statementAdded(contains("m"));
+        index.sailChanged(null);
+
+        SortedMap<Long, Statement> first = index.getContainments(C, 0, 2);
+        assertEquals(Arrays.asList(contains("z"), contains("a")), new ArrayList<>(first.values()));
+
+        // note: members added or removed before the cursor do not shift the next page
+        index.statementRemoved(contains("z"));
+        index.statementAdded(contains("b"));
+        index.sailChanged(null);
+
+        SortedMap<Long, Statement> next = index.getContainments(C, first.lastKey(), 2);
+        assertEquals(Arrays.asList(contains("m"), contains("b")), new ArrayList<>(next.values()));
+
+        assertEquals(3, index.getContainmentCount(C));
+        assertTrue(index.getContainments(C, next.lastKey(), 2).isEmpty());
+    }
+
+    @Test
+    public void testMetadata() {
+        GraphIndex index = new GraphIndex();
+        index.statementAdded(Vocabulary.VALUE_FACTORY.createStatement(C, RDF.TYPE, LDP.BASIC_CONTAINER, C));
+        index.statementAdded(contains("a"));
+
+        // note: metadata only change once changes are committed
+        assertFalse(index.exists(C));
+        index.sailChanged(null);
+
+        assertEquals(2, index.getStatementCount(C));
+        assertEquals(LDP.BASIC_CONTAINER, index.getContainerType(C));
+
+        index.statementRemoved(Vocabulary.VALUE_FACTORY.createStatement(C, RDF.TYPE, LDP.BASIC_CONTAINER, C));
+        index.statementRemoved(contains("a"));
+        index.discard(); // rolled back
+        index.sailChanged(null);
+
+        assertEquals(2, index.getStatementCount(C));
+        assertEquals(1, index.getContainmentCount(C));
+
+        index.statementRemoved(Vocabulary.VALUE_FACTORY.createStatement(C, RDF.TYPE, LDP.BASIC_CONTAINER, C));
+        index.statementRemoved(contains("a"));
+        index.sailChanged(null);
+
+        assertFalse(index.exists(C));
+        assertNull(index.getContainerType(C));
+        assertTrue(index.getContainments(C).isEmpty());
+    }
+
+    @Test
+    public void testRolledBackContainment() {
+        GraphIndex index = new GraphIndex();
+        index.statementAdded(contains("a"));
+        index.discard(); // e.g. failed POST
+
+        index.statementAdded(contains("b"));
+        index.sailChanged(null);
+
+        assertEquals(Collections.singleton(contains("b")), index.getContainments(C));
+    }
+
+    @Test
+    public void testDescription() {
+        Statement type = Vocabulary.VALUE_FACTORY.createStatement(C, RDF.TYPE, LDP.BASIC_CONTAINER, C);
+        Statement label = Vocabulary.VALUE_FACTORY.createStatement(C, RDF.VALUE, Vocabulary.VALUE_FACTORY.createLiteral("c"), C);
+
+        GraphIndex index = new GraphIndex();
+        index.statementAdded(type);
+        index.statementAdded(contains("a"));
+        index.sailChanged(null);
+
+        // note: not indexed until read from the store, nor if the graph changed while it was read
+        assertNull(index.getDescription(C));
+        long version = index.getVersion(C);
+        index.statementAdded(label);
+        index.sailChanged(null);
+        index.setDescription(C, version, Collections.singleton(type));
+        assertNull(index.getDescription(C));
+
+        index.setDescription(C, index.getVersion(C), Arrays.asList(type, label));
+        index.statementRemoved(label);
+        index.statementAdded(contains("b"));
+        index.sailChanged(null);
+
+        assertEquals(Collections.singleton(type), index.getDescription(C));
+
+        index.statementRemoved(type);
+        index.sailChanged(null);
+
+        assertNull(index.getDescription(C));
+    }
+
+}
@@ -0,0 +1,62 @@
+package org.bold.http;
+
+import org.bold.sim.Vocabulary;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class GroupCommitTest {
+
+    private static final IRI G = Vocabulary.VALUE_FACTORY.createIRI("http://example.org/g");
+
+    @Test(timeout = 10000)
+    public void testInterruptedCommitter() throws Exception {
+        Set<Thread> others = committers();
+
+        SailRepository repo = new SailRepository(new MemoryStore());
+        GroupCommit writes = new GroupCommit(repo.getConnection());
+
+        Set<Thread> started = committers();
+        started.removeAll(others);
+        Thread committer = started.iterator().next();
+
+        committer.interrupt();
+        committer.join();
+
+        // note: writes fail instead of waiting for a committer that is gone
+        try {
+            writes.commit(con -> con.add(G, RDF.VALUE, Vocabulary.VALUE_FACTORY.createLiteral(1), G));
+            fail("Write accepted after the committer stopped");
+        } catch (RepositoryException e) {
+            // expected
+        }
+
+        writes.close();
+
+        try (RepositoryConnection con = repo.getConnection()) {
+            assertFalse(con.hasStatement(null, null, null, false, G));
+        }
+
+        repo.shutDown();
+    }
+
+    private static Set<Thread> committers() {
+        Set<Thread> threads = new HashSet<>();
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().equals("bold-group-commit")) threads.add(t);
+        }
+
+        return threads;
+    }
+
+}
@@ -17,6 +17,7 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.bold.io.FileUtils;
@@ -242,6 +243,25 @@ public class LDPHandlerTest {
         assertEquals("DELETE on a contained resource did not remove the containment triple (5.2.5.1)", 1, ngin.getConnection().getStatements(null, LDP.CONTAINS, null).stream().count());
     }
 
+    @Test
+    public void testBatchContainment() throws Exception {
+        ngin.registerDataset("ldp.trig").registrationDone();
+
+        startSimulation("sim.ttl");
+
+        String batch = "<http://127.0.1.1:" + TEST_PORT + "/rootContainer> {\n" +
+                "    <http://127.0.1.1:" + TEST_PORT + "/rootContainer> <" + LDP.CONTAINS + "> <http://127.0.1.1:" + TEST_PORT + "/elsewhere> .\n" +
+                "}";
+
+        CloseableHttpClient client = HttpClients.createMinimal();
+        HttpPost req = new HttpPost("http://localhost:" + TEST_PORT + "/batch");
+        req.setEntity(new StringEntity(batch, ContentType.create("application/trig")));
+        HttpResponse resp = client.execute(req);
+
+        assertEquals("POST on /batch added a containment triple", 409, resp.getStatusLine().getStatusCode());
+        assertEquals(2, ngin.getConnection().getStatements(null, LDP.CONTAINS, null).stream().count());
+    }
+
     @Test
     public void testDirectContainer() throws Exception {
         ngin.registerDataset("ldp-direct.trig").registrationDone();
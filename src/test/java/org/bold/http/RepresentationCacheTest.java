@@ -0,0 +1,38 @@
+package org.bold.http;
+
+import org.bold.sim.Vocabulary;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+public class RepresentationCacheTest {
+
+    private static final IRI G1 = Vocabulary.VALUE_FACTORY.createIRI("http://example.org/g1");
+
+    private static final IRI G2 = Vocabulary.VALUE_FACTORY.createIRI("http://example.org/g2");
+
+    @Test
+    public void testVersion() {
+        RepresentationCache cache = new RepresentationCache(1024);
+        cache.put(G1, RDFFormat.TURTLE, 2, new byte[] { 2 });
+        cache.put(G1, RDFFormat.TURTLE, 1, new byte[] { 1 }); // stale export
+
+        assertArrayEquals(new byte[] { 2 }, cache.get(G1, RDFFormat.TURTLE, 2));
+        assertNull(cache.get(G1, RDFFormat.TURTLE, 3));
+        assertNull(cache.get(G1, RDFFormat.NTRIPLES, 2));
+    }
+
+    @Test
+    public void testEviction() {
+        RepresentationCache cache = new RepresentationCache(10);
+        cache.put(G1, RDFFormat.TURTLE, 1, new byte[6]);
+        cache.put(G2, RDFFormat.TURTLE, 1, new byte[6]);
+
+        assertNull(cache.get(G1, RDFFormat.TURTLE, 1));
+        assertArrayEquals(new byte[6], cache.get(G2, RDFFormat.TURTLE, 1));
+    }
+
+}
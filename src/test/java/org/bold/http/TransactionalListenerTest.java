@@ -0,0 +1,64 @@
+package org.bold.http;
+
+import org.bold.sim.Vocabulary;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.sail.SailConnectionListener;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionalListenerTest {
+
+    private static final IRI G = Vocabulary.VALUE_FACTORY.createIRI("http://example.org/g");
+
+    private static final Statement ST1 = Vocabulary.VALUE_FACTORY.createStatement(G, Vocabulary.ITERATIONS, Vocabulary.VALUE_FACTORY.createLiteral(1), G);
+
+    private static final Statement ST2 = Vocabulary.VALUE_FACTORY.createStatement(G, Vocabulary.ITERATIONS, Vocabulary.VALUE_FACTORY.createLiteral(2), G);
+
+    private final List<String> notified = new ArrayList<>();
+
+    private final SailConnectionListener recorder = new SailConnectionListener() {
+        @Override
+        public void statementAdded(Statement st) {
+            notified.add("+" + st.getObject().stringValue());
+        }
+
+        @Override
+        public void statementRemoved(Statement st) {
+            notified.add("-" + st.getObject().stringValue());
+        }
+    };
+
+    @Test
+    public void testCommitted() {
+        TransactionalListener listener = new TransactionalListener(recorder);
+        listener.statementAdded(ST1);
+        listener.statementRemoved(ST1);
+        listener.statementAdded(ST2);
+
+        // note: changes are only forwarded once committed
+        assertTrue(notified.isEmpty());
+        listener.sailChanged(null);
+
+        assertEquals(Arrays.asList("+1", "-1", "+2"), notified);
+    }
+
+    @Test
+    public void testRolledBack() {
+        TransactionalListener listener = new TransactionalListener(recorder);
+        listener.statementAdded(ST1);
+        listener.discard(); // e.g. failed group of writes
+
+        listener.statementAdded(ST2);
+        listener.sailChanged(null);
+
+        assertEquals(Arrays.asList("+2"), notified);
+    }
+
+}
@@ -0,0 +1,32 @@
+package org.bold.sim;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdmissionControlTest {
+
+    @Test
+    public void testThrottling() {
+        AdmissionControl admission = new AdmissionControl(0.001, 1, 0, () -> 1000);
+
+        assertEquals(AdmissionControl.Decision.ADMITTED, admission.admit("a"));
+        assertEquals(AdmissionControl.Decision.THROTTLED, admission.admit("a"));
+        assertEquals(AdmissionControl.Decision.ADMITTED, admission.admit("b"));
+
+        admission.timeIncremented(0l);
+        assertEquals(2, admission.getClientCount()); // buckets still empty
+    }
+
+    @Test
+    public void testIdleClients() {
+        AdmissionControl admission = new AdmissionControl(1e9, 1, 0, () -> 1000);
+
+        admission.admit("a");
+        admission.admit("b");
+
+        admission.timeIncremented(0l);
+        assertEquals(0, admission.getClientCount()); // buckets refilled
+    }
+
+}
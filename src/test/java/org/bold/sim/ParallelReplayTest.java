@@ -0,0 +1,108 @@
+package org.bold.sim;
+
+import org.bold.io.FileUtils;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.query.algebra.evaluation.function.Function;
+import org.eclipse.rdf4j.query.algebra.evaluation.function.FunctionRegistry;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.repository.sail.SailRepositoryConnection;
+import org.eclipse.rdf4j.sail.NotifyingSailConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelReplayTest {
+
+    private static final String BASE = "http://127.0.1.1:8080/";
+
+    private static final IRI SIM = Vocabulary.VALUE_FACTORY.createIRI(BASE, "sim");
+
+    private static final String FAILING_QUERY = "PREFIX : <" + Vocabulary.NS + ">\n" +
+            "SELECT ?it WHERE {\n" +
+            "    ?sim :currentIteration ?it .\n" +
+            "    FILTER (:failAt2(?it))\n" +
+            "}";
+
+    /**
+     * Fails query evaluation at iteration 2 (with an error, not swallowed by the replayer).
+     */
+    private static class FailingFunction implements Function {
+
+        @Override
+        public String getURI() {
+            return Vocabulary.NS + "failAt2";
+        }
+
+        @Override
+        public Value evaluate(ValueFactory valueFactory, Value... args) {
+            if (((Literal) args[0]).intValue() == 2) {
+                failed = true;
+                throw new AssertionError("query failed");
+            }
+
+            return valueFactory.createLiteral(true);
+        }
+
+    }
+
+    private static volatile boolean failed = false;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Function function = new FailingFunction();
+
+    @Before
+    public void registerFunction() {
+        FunctionRegistry.getInstance().add(function);
+    }
+
+    @After
+    public void removeFunction() {
+        FunctionRegistry.getInstance().remove(function);
+    }
+
+    @Test
+    public void testFailedSegment() throws Exception {
+        SailRepository repo = SimulationHandler.createRepository("gsp");
+        SailRepositoryConnection connection = repo.getConnection();
+
+        UpdateHistory history = new UpdateHistory();
+        ((NotifyingSailConnection) connection.getSailConnection()).addConnectionListener(history);
+
+        File faults = new File(folder.getRoot(), "faults.tsv");
+        File interactions = new File(folder.getRoot(), "interactions.tsv");
+        File updates = new File(folder.getRoot(), "updates.tsv");
+
+        SimulationEngine engine = new SimulationEngine(BASE, connection, history, new InteractionHistory(), faults.getPath());
+        engine.setStatisticsFiles(interactions.getPath(), updates.getPath());
+        engine.setCheckpointInterval(2, 2);
+        engine.registerQuery("failing", FAILING_QUERY);
+        engine.registrationDone();
+
+        connection.add(SIM, Vocabulary.ITERATIONS, Vocabulary.VALUE_FACTORY.createLiteral(4), SIM);
+        engine.runHeadless();
+
+        // note: the engine is ready for the next run, results and statistics are written
+        assertTrue(failed);
+        assertEquals(SimulationEngine.EngineState.EMPTY_STORE, engine.getCurrentState());
+        assertTrue(FileUtils.asString(new FileInputStream(faults)).contains("# end of run"));
+        assertTrue(interactions.exists());
+        assertTrue(updates.exists());
+
+        connection.close();
+        repo.shutDown();
+    }
+
+}
@@ -0,0 +1,37 @@
+package org.bold.sim;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueryFootprintTest {
+
+    private static final String BASE = "http://example.org/";
+
+    private static final IRI S = Vocabulary.VALUE_FACTORY.createIRI(BASE, "s");
+
+    private static final IRI VALUE = Vocabulary.VALUE_FACTORY.createIRI(BASE, "value");
+
+    private static final IRI SENSOR = Vocabulary.VALUE_FACTORY.createIRI(BASE, "Sensor");
+
+    @Test
+    public void testConstantPredicate() {
+        QueryFootprint fp = QueryFootprint.of("select * where { ?s a <Sensor> ; <label> ?l }", BASE);
+
+        assertTrue(fp.matches(Vocabulary.VALUE_FACTORY.createStatement(S, RDF.TYPE, SENSOR)));
+        assertFalse(fp.matches(Vocabulary.VALUE_FACTORY.createStatement(S, RDF.TYPE, S)));
+        assertFalse(fp.matches(Vocabulary.VALUE_FACTORY.createStatement(S, VALUE, S)));
+    }
+
+    @Test
+    public void testVolatileQuery() {
+        QueryFootprint fp = QueryFootprint.of("select * where { ?s <label> ?l filter (rand() < 0.5) }", BASE);
+
+        assertTrue(fp.isVolatile());
+        assertTrue(fp.matches(Vocabulary.VALUE_FACTORY.createStatement(S, VALUE, S)));
+    }
+
+}
@@ -0,0 +1,79 @@
+package org.bold.sim;
+
+import org.bold.http.GraphIndex;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.repository.sail.SailRepositoryConnection;
+import org.eclipse.rdf4j.sail.NotifyingSail;
+import org.eclipse.rdf4j.sail.NotifyingSailConnection;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SimulationEngineRollbackTest {
+
+    private static final String BASE = "http://127.0.1.1:8080/";
+
+    private static final IRI SIM = Vocabulary.VALUE_FACTORY.createIRI(BASE, "sim");
+
+    private static final IRI G = Vocabulary.VALUE_FACTORY.createIRI(BASE, "g");
+
+    private static final IRI H = Vocabulary.VALUE_FACTORY.createIRI(BASE, "h");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRolledBackUpdate() throws Exception {
+        SailRepository repo = SimulationHandler.createRepository("gsp");
+        GraphIndex index = new GraphIndex();
+        ((NotifyingSail) repo.getSail()).addSailChangedListener(index);
+
+        UpdateHistory history = new UpdateHistory();
+        SailRepositoryConnection connection = repo.getConnection();
+        ((NotifyingSailConnection) connection.getSailConnection()).addConnectionListener(history);
+        ((NotifyingSailConnection) connection.getSailConnection()).addConnectionListener(index);
+
+        File faults = new File(folder.getRoot(), "faults.tsv");
+        File interactions = new File(folder.getRoot(), "interactions.tsv");
+        File updates = new File(folder.getRoot(), "updates.tsv");
+
+        AtomicInteger failures = new AtomicInteger();
+
+        SimulationEngine engine = new SimulationEngine(BASE, connection, history, new InteractionHistory(), faults.getPath());
+        engine.setStatisticsFiles(interactions.getPath(), updates.getPath());
+        engine.setRollbackListener(index::discard);
+        engine.registerContinuousUpdate("zz-failing", con -> {
+            con.add(G, RDF.VALUE, Vocabulary.VALUE_FACTORY.createLiteral(1), G);
+            failures.incrementAndGet();
+            throw new IllegalStateException("update failed");
+        });
+        engine.registrationDone();
+
+        connection.add(SIM, Vocabulary.ITERATIONS, Vocabulary.VALUE_FACTORY.createLiteral(1), SIM);
+
+        // note: failed ticks are logged, the run goes on
+        engine.runHeadless();
+
+        assertTrue(failures.get() > 0);
+        assertEquals(SimulationEngine.EngineState.EMPTY_STORE, engine.getCurrentState());
+
+        // note: the next commit in the same thread must not apply changes of the rolled back transaction
+        connection.add(H, RDF.VALUE, Vocabulary.VALUE_FACTORY.createLiteral(1), H);
+
+        assertTrue(index.exists(H));
+        assertFalse(index.exists(G));
+
+        connection.close();
+        repo.shutDown();
+    }
+
+}
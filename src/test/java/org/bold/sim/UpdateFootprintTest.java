@@ -0,0 +1,30 @@
+package org.bold.sim;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UpdateFootprintTest {
+
+    private static final String BASE = "http://example.org/";
+
+    @Test
+    public void testDisjointUpdates() {
+        UpdateFootprint u1 = UpdateFootprint.of("delete { ?s <a> ?o } insert { ?s <a> 1 } where { ?s <a> ?o }", BASE);
+        UpdateFootprint u2 = UpdateFootprint.of("delete { ?s <b> ?o } insert { ?s <b> 1 } where { ?s <b> ?o ; <c> ?x }", BASE);
+
+        assertFalse(u1.conflicts(u2));
+        assertFalse(u2.conflicts(u1));
+    }
+
+    @Test
+    public void testReadWriteConflict() {
+        UpdateFootprint u1 = UpdateFootprint.of("insert { ?s <a> 1 } where { ?s <b> ?o }", BASE);
+        UpdateFootprint u2 = UpdateFootprint.of("insert { ?s <c> 1 } where { ?s <a> ?o }", BASE);
+
+        assertTrue(u1.conflicts(u2));
+        assertTrue(u1.conflicts(null));
+    }
+
+}
@@ -0,0 +1,123 @@
+package org.bold.sim;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Statement;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class UpdateHistoryTest {
+
+    private static final IRI G = Vocabulary.VALUE_FACTORY.createIRI("http://example.org/g");
+
+    private static final Statement ST1 = Vocabulary.VALUE_FACTORY.createStatement(G, Vocabulary.ITERATIONS, Vocabulary.VALUE_FACTORY.createLiteral(1), G);
+
+    private static final Statement ST2 = Vocabulary.VALUE_FACTORY.createStatement(G, Vocabulary.ITERATIONS, Vocabulary.VALUE_FACTORY.createLiteral(2), G);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private UpdateHistory history = null;
+
+    @Before
+    public void createHistory() {
+        history = new UpdateHistory();
+    }
+
+    @Test
+    public void testInsertThenDelete() {
+        history.statementAdded(ST1);
+        history.statementRemoved(ST1);
+
+        assertEquals(0, history.peek().size());
+        assertEquals(2, history.getRecordedCount());
+    }
+
+    @Test
+    public void testDeleteThenInsert() {
+        history.statementRemoved(ST1);
+        history.statementAdded(ST1);
+        history.statementAdded(ST2);
+
+        Iterator<UpdateHistory.Update> it = history.peek().iterator();
+        UpdateHistory.Update u = it.next();
+
+        assertEquals(ST2, u.getStatement());
+        assertEquals(UpdateHistory.UpdateOperation.INSERT, u.getOperation());
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void testRepeatedOperation() {
+        history.statementAdded(ST1);
+        history.statementAdded(ST1);
+
+        assertEquals(1, history.peek().size());
+    }
+
+    @Test
+    public void testDistinctTimeslots() {
+        history.statementAdded(ST1);
+        history.timeIncremented(0l);
+        history.statementRemoved(ST1);
+
+        assertEquals(2, history.size());
+        assertEquals(1, history.get(0).size());
+        assertEquals(1, history.get(1).size());
+        assertEquals(2, history.getChangeCount());
+    }
+
+    @Test
+    public void testEncodedTimeslot() {
+        history.statementAdded(ST1);
+        history.statementRemoved(ST2);
+        history.timeIncremented(0l);
+
+        Iterator<UpdateHistory.Update> it = history.get(0).iterator();
+        UpdateHistory.Update u1 = it.next(), u2 = it.next();
+
+        assertEquals(ST1, u1.getStatement());
+        assertEquals(UpdateHistory.UpdateOperation.INSERT, u1.getOperation());
+        assertEquals(ST2, u2.getStatement());
+        assertEquals(UpdateHistory.UpdateOperation.DELETE, u2.getOperation());
+        assertFalse(it.hasNext());
+        assertEquals(4, history.getTermCount());
+    }
+
+    @Test
+    public void testChangeLogRecovery() throws IOException {
+        File directory = folder.newFolder();
+        history.setChangeLog(new ChangeLog(directory, 64));
+
+        history.statementAdded(ST1);
+        history.timeIncremented(0l);
+        history.statementRemoved(ST1);
+        history.statementAdded(ST2);
+        history.timeIncremented(0l);
+        history.statementAdded(ST1); // not logged (open timeslot)
+
+        UpdateHistory recovered = new UpdateHistory();
+        recovered.recover(directory);
+
+        assertEquals(3, recovered.size());
+        assertEquals(1, recovered.get(0).size());
+        assertEquals(2, recovered.get(1).size());
+
+        Iterator<UpdateHistory.Update> it = recovered.get(1).iterator();
+        UpdateHistory.Update u1 = it.next(), u2 = it.next();
+
+        assertEquals(ST1, u1.getStatement());
+        assertEquals(UpdateHistory.UpdateOperation.DELETE, u1.getOperation());
+        assertEquals(ST2, u2.getStatement());
+        assertEquals(UpdateHistory.UpdateOperation.INSERT, u2.getOperation());
+    }
+
+}
@@ -0,0 +1,162 @@
+package org.bold.sim;
+
+import org.bold.io.FileUtils;
+import org.eclipse.rdf4j.common.iteration.Iterations;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.model.util.Models;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks update kernels against the SPARQL updates they replace, executed on the same dataset.
+ */
+public class UpdateKernelTest {
+
+    private static final String BASE = "http://127.0.1.1:8080/";
+
+    private static final IRI SIM = Vocabulary.VALUE_FACTORY.createIRI(BASE, "sim");
+
+    private static final IRI OUTSIDE_ILLUMINANCE = Vocabulary.VALUE_FACTORY.createIRI(BASE, "outside#illuminance");
+
+    private static final IRI NUMERIC_VALUE = Vocabulary.VALUE_FACTORY.createIRI("http://qudt.org/schema/qudt#", "numericValue");
+
+    private static final int TICKS = 5;
+
+    private SailRepository sparqlRepo = null;
+
+    private SailRepository kernelRepo = null;
+
+    private RepositoryConnection sparql = null;
+
+    private RepositoryConnection kernel = null;
+
+    @Before
+    public void createStores() {
+        Vocabulary.registerFunctions();
+
+        sparqlRepo = new SailRepository(new MemoryStore());
+        kernelRepo = new SailRepository(new MemoryStore());
+
+        sparql = sparqlRepo.getConnection();
+        kernel = kernelRepo.getConnection();
+    }
+
+    @After
+    public void closeStores() {
+        sparql.close();
+        kernel.close();
+
+        sparqlRepo.shutDown();
+        kernelRepo.shutDown();
+    }
+
+    @Test
+    public void testClock() throws Exception {
+        load("sim-full.ttl", SIM);
+        init();
+
+        UpdateKernel clock = new SparqlUpdateKernel(sparql, read("sim-clock.rq"), BASE);
+        UpdateKernel clockKernel = new ClockKernel();
+
+        for (int tick = 0; tick < TICKS; tick++) {
+            tick(sparql, clock);
+            tick(kernel, clockKernel);
+
+            assertIsomorphic();
+        }
+    }
+
+    @Test
+    public void testDefaultClock() throws Exception {
+        load("sim-default.ttl", SIM); // note: default initial time
+        init();
+
+        UpdateKernel clock = new SparqlUpdateKernel(sparql, read("sim-clock.rq"), BASE);
+        UpdateKernel clockKernel = new ClockKernel();
+
+        for (int tick = 0; tick < TICKS; tick++) {
+            tick(sparql, clock);
+            tick(kernel, clockKernel);
+
+            assertIsomorphic();
+        }
+    }
+
+    @Test
+    public void testIlluminance() throws Exception {
+        load("sim-full.ttl", SIM);
+        load("illuminance.trig", null);
+        init();
+
+        UpdateKernel clock = new SparqlUpdateKernel(sparql, read("sim-clock.rq"), BASE);
+        UpdateKernel illuminance = new SparqlUpdateKernel(sparql, read("query/update-illuminance.rq"), BASE);
+        UpdateKernel clockKernel = new ClockKernel();
+        UpdateKernel illuminanceKernel = new IlluminanceKernel();
+
+        for (int tick = 0; tick < TICKS; tick++) {
+            tick(sparql, clock, illuminance);
+            tick(kernel, clockKernel, illuminanceKernel);
+
+            assertIsomorphic();
+        }
+
+        // note: the comparison is meaningful only if values changed
+        assertFalse(kernel.hasStatement(OUTSIDE_ILLUMINANCE, NUMERIC_VALUE, Vocabulary.VALUE_FACTORY.createLiteral("0.0", XSD.DECIMAL), false));
+    }
+
+    /**
+     * @param graphName graph in which statements are loaded (null to keep graphs of the file)
+     */
+    private void load(String filename, IRI graphName) throws IOException {
+        RDFFormat format = Rio.getParserFormatForFileName(filename).orElse(RDFFormat.TURTLE);
+        Model model = Rio.parse(FileUtils.getFileOrResource(filename), BASE, format);
+
+        if (graphName != null) sparql.add(model, graphName);
+        else sparql.add(model);
+    }
+
+    /**
+     * Initializes the simulation (sim-init.rq) and copies the dataset to the kernel's store, with the same blank nodes.
+     */
+    private void init() throws IOException {
+        sparql.prepareUpdate(QueryLanguage.SPARQL, read("sim-init.rq"), BASE).execute();
+        kernel.add(Iterations.asList(sparql.getStatements(null, null, null, false)));
+
+        assertIsomorphic();
+    }
+
+    private static void tick(RepositoryConnection con, UpdateKernel... updates) {
+        for (UpdateKernel u : updates) {
+            con.begin();
+            u.execute(con);
+            con.commit();
+        }
+    }
+
+    private void assertIsomorphic() {
+        Model expected = new LinkedHashModel(Iterations.asList(sparql.getStatements(null, null, null, false)));
+        Model actual = new LinkedHashModel(Iterations.asList(kernel.getStatements(null, null, null, false)));
+
+        assertTrue("Kernel and SPARQL update differ:\n" + expected + "\n" + actual, Models.isomorphic(expected, actual));
+    }
+
+    private static String read(String filename) throws IOException {
+        return FileUtils.asString(FileUtils.getFileOrResource(filename));
+    }
+
+}